@@ -0,0 +1,98 @@
+package com.common.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+/**
+ * 按操作选择输出图片的像素格式
+ * <p>
+ * 不需要透明度的输出用 RGB_565，内存只有 ARGB_8888 的一半，也没有 ARGB_4444 的明显色带；
+ * 需要透明度的输出用 ARGB_8888。API 19 以下单张透明输出超出
+ * {@link MemoryBudget#fitsBitmap} 的预算时降为 ARGB_4444，预算随 {@link MemoryBudget}
+ * 维护的紧张程度收紧；不知道尺寸时只在严重不足时降级。ARGB_4444 有色带，只在放不下时才用；
+ * API 19 起系统把 ARGB_4444 按 ARGB_8888 创建，降级不再节省内存，因此不降级，
+ * 放不下时由调用者降低分辨率。
+ * <p>
+ * <pre>
+ * Bitmap output = Bitmap.createBitmap(width, height,
+ *         BitmapConfigPolicy.select(source.hasAlpha(), width, height));
+ * </pre>
+ */
+public class BitmapConfigPolicy {
+
+    /**
+     * 内存充足
+     */
+    public static final int PRESSURE_NONE = MemoryBudget.PRESSURE_NONE;
+    /**
+     * 内存偏紧，预算收紧，较大的透明输出降级
+     */
+    public static final int PRESSURE_MODERATE = MemoryBudget.PRESSURE_MODERATE;
+    /**
+     * 内存严重不足，预算进一步收紧，不知道尺寸的透明输出也降级
+     */
+    public static final int PRESSURE_CRITICAL = MemoryBudget.PRESSURE_CRITICAL;
+
+    /**
+     * 同 {@link MemoryBudget#setPressure(int)}
+     */
+    public static void setMemoryPressure(int pressure) {
+        MemoryBudget.setPressure(pressure);
+    }
+
+    public static int getMemoryPressure() {
+        return MemoryBudget.getPressure();
+    }
+
+    /**
+     * 不考虑尺寸选择格式
+     */
+    public static Config select(boolean needsAlpha) {
+        return select(needsAlpha, 0, 0);
+    }
+
+    /**
+     * @param needsAlpha 输出是否有透明或半透明的像素
+     * @param width      输出宽度，用于判断是否超出内存预算
+     * @param height     输出高度
+     */
+    public static Config select(boolean needsAlpha, int width, int height) {
+        if (!needsAlpha) {
+            return Config.RGB_565;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // ARGB_4444 按 ARGB_8888 创建，降级只会带来色带
+            return Config.ARGB_8888;
+        }
+        boolean degrade = width <= 0 || height <= 0
+                ? MemoryBudget.getPressure() >= PRESSURE_CRITICAL
+                : !MemoryBudget.fitsBitmap(width, height, Config.ARGB_8888);
+        if (degrade) {
+            MemoryBudget.recordConfigDegrade();
+            return Config.ARGB_4444;
+        }
+        return Config.ARGB_8888;
+    }
+
+    /**
+     * 输出与 source 同样的透明度
+     */
+    public static Config select(Bitmap source, int width, int height) {
+        return select(source == null || source.hasAlpha(), width, height);
+    }
+
+    /**
+     * 按图片文件的格式和尺寸选择，JPEG 不需要透明度；无法解析时按需要透明度处理
+     */
+    public static Config selectForFile(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        if (FileUtils.isFileExist(path)) {
+            BitmapFactory.decodeFile(path, options);
+        }
+        boolean opaque = "image/jpeg".equals(options.outMimeType);
+        return select(!opaque, Math.max(0, options.outWidth), Math.max(0, options.outHeight));
+    }
+}
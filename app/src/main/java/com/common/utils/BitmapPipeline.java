@@ -0,0 +1,539 @@
+package com.common.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+
+/**
+ * 图片处理流水线
+ * <p>
+ * 按顺序声明缩放、剪切、模糊、羽化、圆角、叠加等步骤，执行时：
+ * <ul>
+ * <li>相邻的缩放和剪切合并成一次矩阵绘制，只采样输出需要的那部分源图</li>
+ * <li>从文件执行时，按最终需要的区域和分辨率解码(inSampleSize + 区域解码)</li>
+ * <li>相邻的像素滤镜共用一对 int[] 缓冲区，原地处理同一张 Bitmap</li>
+ * </ul>
+ * 同一个实例可以反复执行，像素缓冲区会被复用，因此不是线程安全的。
+ * <p>
+ * <pre>
+ * Bitmap bg = new BitmapPipeline()
+ *         .scale(toWidth / (float) bitmap.getWidth())
+ *         .centerCrop(toWidth, toHigth)
+ *         .blur(12)
+ *         .config(BitmapConfigPolicy.select(false))
+ *         .apply(bitmap);
+ * </pre>
+ */
+public class BitmapPipeline {
+
+    private static final String LOGTAG = "BitmapPipeline";
+
+    private static final MetricsRegistry.Timer APPLY_TIMER = MetricsRegistry
+            .timer("BitmapPipeline.apply");
+
+    private final List<Step> mSteps = new ArrayList<Step>();
+    private final Paint mFilterPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private Config mConfig = Config.ARGB_8888;
+    private int[] mPixels;
+    private int[] mScratch;
+
+    /**
+     * 输出及中间结果的格式，默认 ARGB_8888
+     */
+    public BitmapPipeline config(Config config) {
+        mConfig = config;
+        return this;
+    }
+
+    public BitmapPipeline scale(float scale) {
+        return scale(scale, scale);
+    }
+
+    public BitmapPipeline scale(final float scaleX, final float scaleY) {
+        mSteps.add(new GeometryStep() {
+            @Override
+            void apply(Geometry geometry) {
+                geometry.scale(scaleX, scaleY);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 缩放到固定大小
+     */
+    public BitmapPipeline resize(final int width, final int height) {
+        mSteps.add(new GeometryStep() {
+            @Override
+            void apply(Geometry geometry) {
+                geometry.scale(width / (float) geometry.width, height / (float) geometry.height);
+                geometry.width = width;
+                geometry.height = height;
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 剪切，坐标相对于上一步的结果
+     */
+    public BitmapPipeline crop(final Rect rect) {
+        final Rect r = new Rect(rect);
+        mSteps.add(new GeometryStep() {
+            @Override
+            void apply(Geometry geometry) {
+                geometry.crop(r.left, r.top, r.right, r.bottom);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 从上一步结果的中间剪切出 width * height
+     */
+    public BitmapPipeline centerCrop(final int width, final int height) {
+        mSteps.add(new GeometryStep() {
+            @Override
+            void apply(Geometry geometry) {
+                int left = (geometry.width - width) / 2;
+                int top = (geometry.height - height) / 2;
+                geometry.crop(left, top, left + width, top + height);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 同 {@link PictureUtils#BoxBlurFilter(Bitmap, int)}
+     */
+    public BitmapPipeline blur(int iterations) {
+        return filter(PictureUtils.boxBlurTileFilter(iterations));
+    }
+
+    /**
+     * 同 {@link PictureUtils#BoxBlurFilter(Bitmap, int, int)}
+     */
+    public BitmapPipeline blur(int iterations, int quality) {
+        return filter(PictureUtils.boxBlurTileFilter(iterations, quality));
+    }
+
+    /**
+     * 同 {@link PictureUtils#renderBitmap(Bitmap)}
+     */
+    public BitmapPipeline vignette() {
+        return filter(PictureUtils.renderTileFilter());
+    }
+
+    /**
+     * 同 {@link PictureUtils#renderBitmap(Bitmap, float)}
+     */
+    public BitmapPipeline vignette(float size) {
+        return filter(PictureUtils.renderTileFilter(size));
+    }
+
+    /**
+     * 同 {@link PictureUtils#sideRenderBitmap(Bitmap, int)}
+     */
+    public BitmapPipeline sideFade(int sideWidth) {
+        return filter(PictureUtils.sideRenderTileFilter(sideWidth));
+    }
+
+    /**
+     * 四边按各自宽度和曲线渐变透明，见 {@link EdgeFade}
+     */
+    public BitmapPipeline edgeFade(EdgeFade fade) {
+        return filter(PictureUtils.edgeFadeTileFilter(fade));
+    }
+
+    public BitmapPipeline grayscale() {
+        return filter(PictureUtils.grayscaleTileFilter());
+    }
+
+    /**
+     * 自定义像素滤镜，整张图作为一块交给滤镜处理
+     */
+    public BitmapPipeline filter(final TiledBitmapProcessor.TileFilter filter) {
+        mSteps.add(new PixelStep() {
+            @Override
+            void apply(TiledBitmapProcessor.Tile tile) {
+                filter.filter(tile);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 圆角，四角原地清成透明
+     */
+    public BitmapPipeline roundCorner(final float radius) {
+        mSteps.add(new CanvasStep() {
+            @Override
+            void apply(Bitmap target) {
+                PictureUtils.clearRoundCorner(target, radius);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 在 (left, top) 处叠加一张图片
+     */
+    public BitmapPipeline overlay(final Bitmap above, final int left, final int top) {
+        mSteps.add(new CanvasStep() {
+            @Override
+            void apply(Bitmap target) {
+                new Canvas(target).drawBitmap(above, left, top, null);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 居中叠加一张图片，同 {@link PictureUtils#overlying(Bitmap, Bitmap)}
+     */
+    public BitmapPipeline overlayCenter(final Bitmap above) {
+        mSteps.add(new CanvasStep() {
+            @Override
+            void apply(Bitmap target) {
+                new Canvas(target).drawBitmap(above,
+                        (target.getWidth() - above.getWidth()) / 2,
+                        (target.getHeight() - above.getHeight()) / 2, null);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 执行流水线，不会修改或回收 source
+     *
+     * @return 失败时返回null
+     */
+    public Bitmap apply(Bitmap source) {
+        if (source == null) {
+            return null;
+        }
+        long start = MetricsRegistry.start();
+        try {
+            return run(source, false, false, 0);
+        } catch (OutOfMemoryError e) {
+            LogUtil.e(LOGTAG, "apply:OutOfMemoryError");
+            return null;
+        } finally {
+            APPLY_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * 从图片文件执行流水线；开头的缩放和剪切决定实际解码的区域和采样率
+     *
+     * @return 失败时返回null
+     */
+    public Bitmap apply(String path) {
+        if (!FileUtils.isFileExist(path)) {
+            return null;
+        }
+        long start = MetricsRegistry.start();
+        Bitmap decoded = null;
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(path, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            Geometry geometry = new Geometry(options.outWidth, options.outHeight);
+            int index = applyGeometrySteps(geometry, 0);
+
+            Rect region = new Rect(0, 0, options.outWidth, options.outHeight);
+            options.inJustDecodeBounds = false;
+            options.inPreferredConfig = mConfig;
+            if (index > 0) {
+                geometry.sourceBounds(region);
+                options.inSampleSize = geometry.sampleSize();
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                setMutable(options);
+            }
+            decoded = decode(path, region, options.outWidth, options.outHeight, options);
+            if (decoded == null) {
+                return null;
+            }
+            if (index == 0) {
+                Bitmap current = decoded;
+                decoded = null;
+                return run(current, true, current.isMutable() && current.getConfig() == mConfig, 0);
+            }
+            // 解码结果的像素 (u, v) 对应原图 (left + u * sx, top + v * sy)
+            geometry.preScale(region.width() / (float) decoded.getWidth(),
+                    region.height() / (float) decoded.getHeight(), region.left, region.top);
+            Bitmap current = draw(decoded, geometry);
+            decoded.recycle();
+            decoded = null;
+            return run(current, true, true, index);
+        } catch (IOException e) {
+            LogUtil.e(LOGTAG, "apply failed", e);
+            return null;
+        } catch (OutOfMemoryError e) {
+            LogUtil.e(LOGTAG, "apply:OutOfMemoryError");
+            return null;
+        } finally {
+            if (decoded != null) {
+                decoded.recycle();
+            }
+            APPLY_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * @param recyclable current 是否由流水线创建，被替换时需要回收
+     * @param writable   current 能否原地修改(可变且格式为 mConfig)
+     */
+    private Bitmap run(Bitmap current, boolean recyclable, boolean writable, int index) {
+        int count = mSteps.size();
+        try {
+            while (index < count || !writable) {
+                Step step = index < count ? mSteps.get(index) : null;
+                if (step == null || step instanceof GeometryStep || !writable) {
+                    // 合并连续的缩放和剪切；没有可写的 Bitmap 时也从这里拷贝一份
+                    Geometry geometry = new Geometry(current.getWidth(), current.getHeight());
+                    index = applyGeometrySteps(geometry, index);
+                    Bitmap next = draw(current, geometry);
+                    if (recyclable) {
+                        current.recycle();
+                    }
+                    current = next;
+                    recyclable = true;
+                    writable = true;
+                } else if (step instanceof PixelStep) {
+                    index = applyPixelSteps(current, index);
+                } else {
+                    ((CanvasStep) step).apply(current);
+                    index++;
+                }
+            }
+            return current;
+        } catch (OutOfMemoryError e) {
+            if (recyclable) {
+                current.recycle();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 把从 index 开始连续的缩放和剪切合并到 geometry
+     *
+     * @return 下一个未执行的步骤
+     */
+    private int applyGeometrySteps(Geometry geometry, int index) {
+        int count = mSteps.size();
+        while (index < count && mSteps.get(index) instanceof GeometryStep) {
+            ((GeometryStep) mSteps.get(index++)).apply(geometry);
+        }
+        return index;
+    }
+
+    /**
+     * 连续的像素滤镜只读写一次 Bitmap
+     *
+     * @return 下一个未执行的步骤
+     */
+    private int applyPixelSteps(Bitmap target, int index) {
+        int width = target.getWidth();
+        int height = target.getHeight();
+        int size = width * height;
+        if (mPixels == null || mPixels.length < size) {
+            mPixels = null;
+            mScratch = null;
+            mPixels = new int[size];
+            mScratch = new int[size];
+        }
+        TiledBitmapProcessor.Tile tile = new TiledBitmapProcessor.Tile();
+        tile.pixels = mPixels;
+        tile.scratch = mScratch;
+        tile.width = width;
+        tile.height = height;
+        tile.imageWidth = width;
+        tile.imageHeight = height;
+
+        target.getPixels(tile.pixels, 0, width, 0, 0, width, height);
+        int count = mSteps.size();
+        while (index < count && mSteps.get(index) instanceof PixelStep) {
+            ((PixelStep) mSteps.get(index++)).apply(tile);
+        }
+        target.setPixels(tile.pixels, 0, width, 0, 0, width, height);
+        // 滤镜可能交换了两个缓冲区
+        mPixels = tile.pixels;
+        mScratch = tile.scratch;
+        return index;
+    }
+
+    private Bitmap draw(Bitmap source, Geometry geometry) {
+        Bitmap output = Bitmap.createBitmap(geometry.width, geometry.height, mConfig);
+        Matrix matrix = new Matrix();
+        matrix.setScale(geometry.scaleX, geometry.scaleY);
+        matrix.postTranslate(geometry.translateX, geometry.translateY);
+        new Canvas(output).drawBitmap(source, matrix, mFilterPaint);
+        return output;
+    }
+
+    /**
+     * 解码 region 部分；只能整图解码时把 region 改为整张图
+     * <p>
+     * 按 {@link MemoryBudget} 的预算增大采样率，放不下时返回null；整图解码经
+     * {@link DecoderService} 排队
+     */
+    private static Bitmap decode(String path, Rect region, int imageWidth, int imageHeight,
+                                 BitmapFactory.Options options) throws IOException {
+        boolean partial = region.left > 0 || region.top > 0 || region.right < imageWidth
+                || region.bottom < imageHeight;
+        if (partial && !region.isEmpty()
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1) {
+            int sampleSize = MemoryBudget.fitSampleSize(options, region.width(),
+                    region.height());
+            if (!MemoryBudget.canAllocateBitmap(
+                    (region.width() + sampleSize - 1) / sampleSize,
+                    (region.height() + sampleSize - 1) / sampleSize, options.inPreferredConfig)) {
+                return null;
+            }
+            return RegionDecoder.decode(path, region, options);
+        }
+        region.set(0, 0, imageWidth, imageHeight);
+        DecoderService.Request request = DecoderService.newRequest();
+        BitmapFactory.Options decodeOptions = request.getOptions();
+        decodeOptions.inSampleSize = options.inSampleSize;
+        decodeOptions.inPreferredConfig = options.inPreferredConfig;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            copyMutable(options, decodeOptions);
+        }
+        // 已知原图尺寸，省去 DecoderService 的尺寸预解码
+        decodeOptions.outWidth = imageWidth;
+        decodeOptions.outHeight = imageHeight;
+        return DecoderService.decodeFile(path, request);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void setMutable(BitmapFactory.Options options) {
+        options.inMutable = true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void copyMutable(BitmapFactory.Options from, BitmapFactory.Options to) {
+        to.inMutable = from.inMutable;
+    }
+
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    private static class RegionDecoder {
+        static Bitmap decode(String path, Rect region, BitmapFactory.Options options)
+                throws IOException {
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(path, false);
+            try {
+                return decoder.decodeRegion(region, options);
+            } finally {
+                decoder.recycle();
+            }
+        }
+    }
+
+    /**
+     * 只有缩放和平移的仿射变换：输出坐标 = 源坐标 * scale + translate
+     */
+    private static class Geometry {
+        float scaleX = 1;
+        float scaleY = 1;
+        float translateX;
+        float translateY;
+        int width;
+        int height;
+
+        Geometry(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        void scale(float sx, float sy) {
+            scaleX *= sx;
+            scaleY *= sy;
+            translateX *= sx;
+            translateY *= sy;
+            width = Math.max(1, Math.round(width * sx));
+            height = Math.max(1, Math.round(height * sy));
+        }
+
+        void crop(int left, int top, int right, int bottom) {
+            translateX -= left;
+            translateY -= top;
+            width = right - left;
+            height = bottom - top;
+        }
+
+        /**
+         * 在源坐标之前再加一次变换：源坐标 = 解码坐标 * (sx, sy) + (dx, dy)
+         */
+        void preScale(float sx, float sy, int dx, int dy) {
+            translateX += scaleX * dx;
+            translateY += scaleY * dy;
+            scaleX *= sx;
+            scaleY *= sy;
+        }
+
+        /**
+         * 输出区域对应的源图范围，多取一个像素给双线性采样，结果限制在 bounds 内
+         */
+        void sourceBounds(Rect bounds) {
+            int left = (int) Math.floor(-translateX / scaleX) - 1;
+            int top = (int) Math.floor(-translateY / scaleY) - 1;
+            int right = (int) Math.ceil((width - translateX) / scaleX) + 1;
+            int bottom = (int) Math.ceil((height - translateY) / scaleY) + 1;
+            bounds.set(Math.max(bounds.left, left), Math.max(bounds.top, top),
+                    Math.min(bounds.right, right), Math.min(bounds.bottom, bottom));
+        }
+
+        /**
+         * 不低于输出分辨率的最大2的幂采样率
+         */
+        int sampleSize() {
+            float scale = Math.max(scaleX, scaleY);
+            int sample = 1;
+            while (sample * 2 * scale <= 1) {
+                sample *= 2;
+            }
+            return sample;
+        }
+    }
+
+    private abstract static class Step {
+    }
+
+    /**
+     * 缩放和剪切，只修改变换，不读写像素
+     */
+    private abstract static class GeometryStep extends Step {
+        abstract void apply(Geometry geometry);
+    }
+
+    /**
+     * 像素滤镜，连续的几个共用一次 getPixels/setPixels
+     */
+    private abstract static class PixelStep extends Step {
+        abstract void apply(TiledBitmapProcessor.Tile tile);
+    }
+
+    /**
+     * 直接在可写的 Bitmap 上绘制
+     */
+    private abstract static class CanvasStep extends Step {
+        abstract void apply(Bitmap target);
+    }
+}
@@ -0,0 +1,367 @@
+package com.common.utils;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import android.annotation.TargetApi;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.os.Build;
+
+/**
+ * 可复用 Bitmap 池
+ * <p>
+ * 不再使用的可变 Bitmap 按宽、高和格式分组放入池中，解码时通过 inBitmap 直接解到池中的
+ * Bitmap 上，省去每次分配和回收像素内存。池的总字节数有上限，超出时先丢弃最早放入的。
+ * 同时缓存解码用的 inTempStorage 缓冲区。
+ * <p>
+ * API 11 以下不支持 inBitmap，池始终为空；API 19 以下 inBitmap 要求尺寸完全相同，
+ * 因此只在 inSampleSize 为1时复用。只有可变的 Bitmap 能放回池中，没有挑到 inBitmap 时
+ * 解码结果是否可变由调用者的 inMutable 决定。
+ * <p>
+ * <pre>
+ * BitmapFactory.Options options = new BitmapFactory.Options();
+ * options.inJustDecodeBounds = true;
+ * BitmapFactory.decodeFile(path, options);
+ * options.inJustDecodeBounds = false;
+ * options.inSampleSize = sampleSize;
+ * options.inMutable = true; // 用完后要放回池中
+ * BitmapPool.setInBitmap(options);
+ * Bitmap bitmap = BitmapPool.decodeFile(path, options);
+ * ...
+ * PictureUtils.recycleBitmap(bitmap); // 放回池中
+ * </pre>
+ */
+public class BitmapPool {
+
+    private static final String LOGTAG = "BitmapPool";
+
+    public static final int TEMP_STORAGE_SIZE = 32 * 1024;
+    private static final int MAX_TEMP_STORAGE = 4;
+
+    private static final MetricsRegistry.Counter HIT_COUNTER = MetricsRegistry
+            .counter("BitmapPool.hit");
+    private static final MetricsRegistry.Counter MISS_COUNTER = MetricsRegistry
+            .counter("BitmapPool.miss");
+    private static final MetricsRegistry.Counter EVICT_COUNTER = MetricsRegistry
+            .counter("BitmapPool.evict");
+
+    private static final Map<Key, LinkedList<Bitmap>> sGroups =
+            new HashMap<Key, LinkedList<Bitmap>>();
+    /**
+     * 查找用的键，只在持有类锁时使用，避免每次取用都新建
+     */
+    private static final Key sLookupKey = new Key();
+    /**
+     * 所有池中的 Bitmap，最早放入的在前
+     */
+    private static final LinkedList<Bitmap> sOrder = new LinkedList<Bitmap>();
+    private static final LinkedList<byte[]> sTempStorage = new LinkedList<byte[]>();
+
+    private static long sMaxSize = Runtime.getRuntime().maxMemory() / 16;
+    private static long sSize;
+    private static long sHits;
+    private static long sMisses;
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * 设置池的字节数上限，超出的部分立即丢弃
+     */
+    public static synchronized void setMaxSize(long maxSize) {
+        sMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public static synchronized long getMaxSize() {
+        return sMaxSize;
+    }
+
+    /**
+     * @return 池中 Bitmap 的总字节数
+     */
+    public static synchronized long getSize() {
+        return sSize;
+    }
+
+    /**
+     * 丢弃池中所有 Bitmap 和缓冲区
+     */
+    public static synchronized void clear() {
+        trimToSize(0);
+        synchronized (sTempStorage) {
+            sTempStorage.clear();
+        }
+    }
+
+    /**
+     * 从最早放入的开始丢弃，直到总字节数不超过 size
+     */
+    public static synchronized void trimToSize(long size) {
+        while (sSize > size && !sOrder.isEmpty()) {
+            Bitmap bitmap = sOrder.removeFirst();
+            LinkedList<Bitmap> group = sGroups.get(sLookupKey.set(bitmap.getWidth(),
+                    bitmap.getHeight(), bitmap.getConfig()));
+            if (group != null) {
+                group.remove(bitmap);
+            }
+            sSize -= sizeOf(bitmap);
+            bitmap.recycle();
+            EVICT_COUNTER.inc();
+        }
+    }
+
+    /**
+     * 放入池中；不可变、已回收或超过上限一半的 Bitmap 不接收
+     *
+     * @return 是否放入，没有放入时由调用者自行回收
+     */
+    public static synchronized boolean put(Bitmap bitmap) {
+        if (!isSupported() || bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getConfig() == null) {
+            return false;
+        }
+        long size = sizeOf(bitmap);
+        if (size > sMaxSize / 2) {
+            return false;
+        }
+        Key key = sLookupKey.set(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        LinkedList<Bitmap> group = sGroups.get(key);
+        if (group == null) {
+            group = new LinkedList<Bitmap>();
+            sGroups.put(new Key().set(key.width, key.height, key.config), group);
+        } else if (group.contains(bitmap)) {
+            return true;
+        }
+        group.addLast(bitmap);
+        sOrder.addLast(bitmap);
+        sSize += size;
+        trimToSize(sMaxSize);
+        return true;
+    }
+
+    /**
+     * 取出一张透明的可变 Bitmap，池中没有时新建
+     *
+     * @throws OutOfMemoryError 新建时内存不足
+     */
+    public static Bitmap get(int width, int height, Config config) {
+        Bitmap bitmap = obtain(width, height, config);
+        if (bitmap != null) {
+            bitmap.eraseColor(Color.TRANSPARENT);
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * 取出尺寸和格式完全相同的 Bitmap，内容未清空
+     *
+     * @return 池中没有时返回null
+     */
+    private static synchronized Bitmap obtain(int width, int height, Config config) {
+        LinkedList<Bitmap> group = sGroups.get(sLookupKey.set(width, height, config));
+        if (group == null || group.isEmpty()) {
+            sMisses++;
+            MISS_COUNTER.inc();
+            return null;
+        }
+        Bitmap bitmap = group.removeLast();
+        sOrder.remove(bitmap);
+        sSize -= sizeOf(bitmap);
+        sHits++;
+        HIT_COUNTER.inc();
+        return bitmap;
+    }
+
+    /**
+     * 命中率，池支持复用后每次取用都会计入
+     */
+    public static synchronized float getHitRate() {
+        long total = sHits + sMisses;
+        return total == 0 ? 0f : (float) sHits / total;
+    }
+
+    public static synchronized long getHitCount() {
+        return sHits;
+    }
+
+    public static synchronized long getMissCount() {
+        return sMisses;
+    }
+
+    /**
+     * 根据已解析的 outWidth、outHeight 和 inSampleSize 从池中挑选 inBitmap；
+     * 挑到时同时设置 inMutable，没有挑到时不改变调用者的 inMutable
+     */
+    public static void setInBitmap(BitmapFactory.Options options) {
+        if (!isSupported() || options.outWidth <= 0 || options.outHeight <= 0) {
+            return;
+        }
+        int sampleSize = Math.max(1, options.inSampleSize);
+        if (sampleSize > 1 && Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return;
+        }
+        // 不同解码器对采样后尺寸的取整不同，按较大的估算；API 19 以上 inBitmap 可以比实际大
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        Config config = options.inPreferredConfig != null ? options.inPreferredConfig
+                : Config.ARGB_8888;
+        Bitmap inBitmap = obtain(width, height, config);
+        if (inBitmap != null) {
+            setReusable(options, inBitmap);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void setReusable(BitmapFactory.Options options, Bitmap inBitmap) {
+        // inBitmap 要求解码结果可变；可清除的 Bitmap 不能作为 inBitmap 的解码结果
+        options.inMutable = true;
+        options.inBitmap = inBitmap;
+        options.inPurgeable = false;
+    }
+
+    /**
+     * 解码文件，inBitmap 不匹配时放回池中并重新分配
+     */
+    public static Bitmap decodeFile(String path, BitmapFactory.Options options) {
+        try {
+            return BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            if (!releaseInBitmap(options)) {
+                throw e;
+            }
+            return BitmapFactory.decodeFile(path, options);
+        }
+    }
+
+    /**
+     * 从文件描述符解码，inBitmap 不匹配时放回池中，从头重新解码
+     *
+     * @throws IOException 读取失败
+     */
+    public static Bitmap decodeFileDescriptor(FileInputStream in, BitmapFactory.Options options)
+            throws IOException {
+        try {
+            return BitmapFactory.decodeFileDescriptor(in.getFD(), null, options);
+        } catch (IllegalArgumentException e) {
+            if (!releaseInBitmap(options)) {
+                throw e;
+            }
+            in.getChannel().position(0);
+            return BitmapFactory.decodeFileDescriptor(in.getFD(), null, options);
+        }
+    }
+
+    /**
+     * 解码 raw 资源，不做密度缩放；inBitmap 不匹配时放回池中并重新分配
+     */
+    public static Bitmap decodeResource(Resources res, int id, BitmapFactory.Options options) {
+        try {
+            return decodeRawResource(res, id, options);
+        } catch (IllegalArgumentException e) {
+            if (!releaseInBitmap(options)) {
+                throw e;
+            }
+            return decodeRawResource(res, id, options);
+        }
+    }
+
+    private static Bitmap decodeRawResource(Resources res, int id,
+                                            BitmapFactory.Options options) {
+        InputStream is = res.openRawResource(id);
+        try {
+            return BitmapFactory.decodeStream(is, null, options);
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                LogUtil.w(LOGTAG, "close resource stream failed", e);
+            }
+        }
+    }
+
+    /**
+     * @return options 中原来是否设置了 inBitmap
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static boolean releaseInBitmap(BitmapFactory.Options options) {
+        if (!isSupported() || options.inBitmap == null) {
+            return false;
+        }
+        LogUtil.w(LOGTAG, "inBitmap rejected, %dx%d", options.inBitmap.getWidth(),
+                options.inBitmap.getHeight());
+        put(options.inBitmap);
+        options.inBitmap = null;
+        return true;
+    }
+
+    /**
+     * 取一个 {@link #TEMP_STORAGE_SIZE} 字节的解码缓冲区，用完后调用 {@link #releaseTempStorage}
+     */
+    public static byte[] obtainTempStorage() {
+        synchronized (sTempStorage) {
+            if (!sTempStorage.isEmpty()) {
+                return sTempStorage.removeLast();
+            }
+        }
+        return new byte[TEMP_STORAGE_SIZE];
+    }
+
+    public static void releaseTempStorage(byte[] buffer) {
+        if (buffer == null || buffer.length != TEMP_STORAGE_SIZE) {
+            return;
+        }
+        synchronized (sTempStorage) {
+            if (sTempStorage.size() < MAX_TEMP_STORAGE) {
+                sTempStorage.addLast(buffer);
+            }
+        }
+    }
+
+    /**
+     * 分组的键：宽、高和格式
+     */
+    private static final class Key {
+        int width;
+        int height;
+        Config config;
+
+        Key set(int width, int height, Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return width == other.width && height == other.height && config == other.config;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = width;
+            result = 31 * result + height;
+            result = 31 * result + (config != null ? config.ordinal() : 0);
+            return result;
+        }
+    }
+
+    private static long sizeOf(Bitmap bitmap) {
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
@@ -0,0 +1,242 @@
+package com.common.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.concurrent.Semaphore;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+/**
+ * 统一的图片解码入口
+ * <p>
+ * 负责打开和关闭输入流，同时进行的解码数量受信号量限制，避免连续拍照时多张全尺寸图片同时解码
+ * 造成内存峰值。每次解码对应一个 {@link Request}，可以在其他线程调用 {@link Request#cancel()}
+ * 通过 requestCancelDecode 中断正在进行的解码。解码目标和缓冲区取自 {@link BitmapPool}。
+ * 解码前按 {@link MemoryBudget} 的预算增大 inSampleSize，内存不够时解出较小的图片。
+ * <p>
+ * <pre>
+ * DecoderService.Request request = DecoderService.newRequest();
+ * request.getOptions().inSampleSize = 4;
+ * Bitmap bitmap = DecoderService.decodeFile(path, request);
+ * // 其他线程
+ * request.cancel();
+ * </pre>
+ */
+public class DecoderService {
+
+    private static final String LOGTAG = "DecoderService";
+
+    public static final int DEFAULT_MAX_CONCURRENT_DECODES = 2;
+
+    private static final MetricsRegistry.Timer DECODE_TIMER = MetricsRegistry
+            .timer("DecoderService.decode");
+    private static final MetricsRegistry.Timer WAIT_TIMER = MetricsRegistry
+            .timer("DecoderService.wait");
+    private static final MetricsRegistry.Counter CANCEL_COUNTER = MetricsRegistry
+            .counter("DecoderService.cancel");
+
+    private static volatile Semaphore sPermits = new Semaphore(DEFAULT_MAX_CONCURRENT_DECODES,
+            true);
+
+    private static Field sNativeAllocField;
+    private static boolean sNativeAllocResolved;
+
+    /**
+     * 一次解码请求，options 在解码前按需设置
+     */
+    public static class Request {
+        private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+        private volatile boolean mCancelled;
+
+        public BitmapFactory.Options getOptions() {
+            return mOptions;
+        }
+
+        /**
+         * 取消解码；还在排队时不再解码，正在解码时中断，解码结果为null
+         */
+        public void cancel() {
+            mCancelled = true;
+            mOptions.requestCancelDecode();
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    private interface Decoder {
+        Bitmap decode(BitmapFactory.Options options) throws IOException;
+    }
+
+    public static Request newRequest() {
+        return new Request();
+    }
+
+    /**
+     * 设置同时进行的解码数量上限，正在进行的解码不受影响
+     */
+    public static void setMaxConcurrentDecodes(int permits) {
+        sPermits = new Semaphore(Math.max(1, permits), true);
+    }
+
+    /**
+     * 设置 inNativeAlloc，使解码的内存不计入 VM 堆；反射只在第一次调用时查找
+     */
+    public static void setNativeAlloc(BitmapFactory.Options options) {
+        Field field = getNativeAllocField();
+        if (field == null) {
+            return;
+        }
+        try {
+            field.setBoolean(options, true);
+        } catch (IllegalAccessException e) {
+            LogUtil.w(LOGTAG, "set inNativeAlloc failed", e);
+        }
+    }
+
+    private static synchronized Field getNativeAllocField() {
+        if (!sNativeAllocResolved) {
+            sNativeAllocResolved = true;
+            try {
+                sNativeAllocField = BitmapFactory.Options.class.getField("inNativeAlloc");
+            } catch (NoSuchFieldException e) {
+                // 新系统没有这个字段
+                sNativeAllocField = null;
+            } catch (SecurityException e) {
+                sNativeAllocField = null;
+            }
+        }
+        return sNativeAllocField;
+    }
+
+    /**
+     * 解码图片文件
+     *
+     * @return 文件不存在、无法解码、已取消或内存不足时返回null
+     */
+    public static Bitmap decodeFile(final String path, Request request) {
+        if (!FileUtils.isFileExist(path)) {
+            return null;
+        }
+        return decode(request, new Decoder() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) throws IOException {
+                if (options.outWidth <= 0) {
+                    // 取原图尺寸，fitSampleSize 和 setInBitmap 会按采样率换算
+                    int sampleSize = options.inSampleSize;
+                    options.inSampleSize = 1;
+                    options.inJustDecodeBounds = true;
+                    BitmapFactory.decodeFile(path, options);
+                    options.inJustDecodeBounds = false;
+                    options.inSampleSize = sampleSize;
+                }
+                MemoryBudget.fitSampleSize(options);
+                BitmapPool.setInBitmap(options);
+                return decodeFileDescriptor(new File(path), options);
+            }
+        });
+    }
+
+    /**
+     * 解码 file:// 形式的 uri
+     *
+     * @return 失败或已取消时返回null
+     */
+    public static Bitmap decodeUri(Uri uri, Request request) {
+        return uri == null ? null : decodeFile(uri.getPath(), request);
+    }
+
+    /**
+     * 解码 raw 资源，不做密度缩放
+     *
+     * @return 失败或已取消时返回null
+     */
+    public static Bitmap decodeResource(final Resources res, final int id, Request request) {
+        return decode(request, new Decoder() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                if (options.outWidth <= 0) {
+                    // 先取原图尺寸，才能检查内存预算和从池中挑选同样大小的 inBitmap；
+                    // 两者都按采样率换算，这里不能带着采样率解码
+                    int sampleSize = options.inSampleSize;
+                    options.inSampleSize = 1;
+                    options.inJustDecodeBounds = true;
+                    BitmapPool.decodeResource(res, id, options);
+                    options.inJustDecodeBounds = false;
+                    options.inSampleSize = sampleSize;
+                }
+                MemoryBudget.fitSampleSize(options);
+                BitmapPool.setInBitmap(options);
+                return BitmapPool.decodeResource(res, id, options);
+            }
+        });
+    }
+
+    /**
+     * 通过文件描述符解码，流在这里关闭
+     */
+    private static Bitmap decodeFileDescriptor(File file, BitmapFactory.Options options)
+            throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return BitmapPool.decodeFileDescriptor(in, options);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                LogUtil.w(LOGTAG, "close failed: %s", e, file);
+            }
+        }
+    }
+
+    private static Bitmap decode(Request request, Decoder decoder) {
+        if (request.isCancelled()) {
+            CANCEL_COUNTER.inc();
+            return null;
+        }
+        Semaphore permits = sPermits;
+        long wait = MetricsRegistry.start();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            WAIT_TIMER.stop(wait);
+        }
+
+        BitmapFactory.Options options = request.getOptions();
+        Bitmap bitmap = null;
+        long start = MetricsRegistry.start();
+        try {
+            if (!request.isCancelled()) {
+                options.inTempStorage = BitmapPool.obtainTempStorage();
+                bitmap = decoder.decode(options);
+            }
+        } catch (IOException e) {
+            LogUtil.e(LOGTAG, "decode failed", e);
+        } catch (OutOfMemoryError e) {
+            LogUtil.e(LOGTAG, "decode:OutOfMemoryError");
+        } finally {
+            BitmapPool.releaseTempStorage(options.inTempStorage);
+            options.inTempStorage = null;
+            permits.release();
+            DECODE_TIMER.stop(start);
+        }
+
+        if (request.isCancelled()) {
+            CANCEL_COUNTER.inc();
+            if (bitmap != null) {
+                PictureUtils.recycleBitmap(bitmap);
+            }
+            return null;
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,176 @@
+package com.common.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * MD5 摘要工具，可用于拍照图片去重和缓存key
+ * <p>
+ * 每个线程复用一个 MessageDigest 和读缓冲区；文件通过 FileChannel 分块读入直接缓冲区，
+ * 不会把整个文件读进 Java 堆。
+ */
+public class DigestUtils {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<MessageDigest> sMd5 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("Huh, MD5 should be supported?", e);
+            }
+        }
+    };
+
+    private static final ThreadLocal<ByteBuffer> sDirectBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    private static final ThreadLocal<byte[]> sStreamBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    public static byte[] md5(byte[] data) {
+        return md5(data, 0, data.length);
+    }
+
+    public static byte[] md5(byte[] data, int offset, int length) {
+        MessageDigest digest = sMd5.get();
+        digest.update(data, offset, length);
+        return digest.digest();
+    }
+
+    public static String md5Hex(byte[] data) {
+        return toHex(md5(data, 0, data.length));
+    }
+
+    public static String md5Hex(byte[] data, int offset, int length) {
+        return toHex(md5(data, offset, length));
+    }
+
+    /**
+     * 读到流末尾计算摘要，不会关闭流
+     *
+     * @throws RuntimeException if an error occurs while reading the stream
+     */
+    public static byte[] md5(InputStream in) {
+        MessageDigest digest = sMd5.get();
+        digest.reset();
+        byte[] buffer = sStreamBuffer.get();
+        try {
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, length);
+            }
+        } catch (IOException e) {
+            digest.reset();
+            throw new RuntimeException("IOException occurred. ", e);
+        }
+        return digest.digest();
+    }
+
+    public static String md5Hex(InputStream in) {
+        return toHex(md5(in));
+    }
+
+    /**
+     * @return if file not exist, return null
+     * @throws RuntimeException if an error occurs while reading the file
+     */
+    public static byte[] md5(File file) {
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        return md5(file, 0, file.length());
+    }
+
+    /**
+     * 计算文件中一段字节的摘要
+     *
+     * @param file
+     * @param position 起始偏移
+     * @param length   字节数，超出文件末尾的部分忽略
+     * @return if file not exist, return null
+     * @throws RuntimeException if an error occurs while reading the file
+     */
+    public static byte[] md5(File file, long position, long length) {
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        MessageDigest digest = sMd5.get();
+        digest.reset();
+        ByteBuffer buffer = sDirectBuffer.get();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            long remaining = length;
+            channel.position(position);
+            while (remaining > 0) {
+                buffer.clear();
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int) remaining);
+                }
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                buffer.flip();
+                digest.update(buffer);
+                remaining -= read;
+            }
+            return digest.digest();
+        } catch (IOException e) {
+            digest.reset();
+            throw new RuntimeException("IOException occurred. ", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    throw new RuntimeException("IOException occurred. ", e);
+                }
+            }
+        }
+    }
+
+    public static String md5Hex(File file) {
+        byte[] hash = md5(file);
+        return hash == null ? null : toHex(hash);
+    }
+
+    /**
+     * 文件内容的 MD5，文件不存在或读取失败时返回null
+     */
+    public static String md5HexOfFile(String filePath) {
+        return StringUtils.isEmpty(filePath) ? null : md5Hex(new File(filePath));
+    }
+
+    /**
+     * 转成小写十六进制字符串
+     */
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            hex[j++] = HEX_DIGITS[b >>> 4];
+            hex[j++] = HEX_DIGITS[b & 0x0F];
+        }
+        return new String(hex);
+    }
+}
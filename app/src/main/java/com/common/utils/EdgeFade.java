@@ -0,0 +1,232 @@
+package com.common.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+
+/**
+ * 边缘渐变透明
+ * <p>
+ * 只读写四条边上需要处理的像素，中间部分不动；每条边的透明度渐变在设置时算好，
+ * 处理时按列/行查表。像素透明度 = 水平渐变 * 竖直渐变 / 255，替换原来的透明度。
+ * 实例会复用读写用的缓冲区，不是线程安全的。
+ * <p>
+ * <pre>
+ * // 与 PictureUtils.sideRenderBitmap(bitmap, 50) 相同，但直接修改可变、有透明通道的 bitmap
+ * new EdgeFade().left(50).right(50).apply(bitmap);
+ *
+ * new EdgeFade().left(40, EdgeFade.SMOOTH).bottom(120, EdgeFade.SMOOTH).apply(bitmap);
+ * </pre>
+ */
+public class EdgeFade {
+
+    /**
+     * 透明度曲线
+     */
+    public interface Curve {
+        /**
+         * @param distance 到边缘的像素数，左边和上边从0开始，右边和下边从1开始
+         * @param width    渐变宽度
+         * @return 0~255
+         */
+        int alpha(int distance, int width);
+    }
+
+    /**
+     * 线性渐变，与原来的 sideRenderBitmap 相同
+     */
+    public static final Curve LINEAR = new Curve() {
+        @Override
+        public int alpha(int distance, int width) {
+            int alp = 255 * distance / width;
+            return alp > 255 ? 255 : (alp < 0 ? 0 : alp);
+        }
+    };
+
+    /**
+     * smoothstep 曲线，两端过渡更柔和
+     */
+    public static final Curve SMOOTH = new Curve() {
+        @Override
+        public int alpha(int distance, int width) {
+            float t = Math.min(1f, Math.max(0f, distance / (float) width));
+            return Math.round(255 * t * t * (3 - 2 * t));
+        }
+    };
+
+    private int[] mLeft = new int[0];
+    private int[] mTop = new int[0];
+    // 右边和下边按 1~width 的距离取值，下标0不用
+    private int[] mRight = new int[1];
+    private int[] mBottom = new int[1];
+    private int[] mBuffer;
+
+    public EdgeFade left(int width) {
+        return left(width, LINEAR);
+    }
+
+    public EdgeFade left(int width, Curve curve) {
+        mLeft = ramp(width, curve, 0);
+        return this;
+    }
+
+    public EdgeFade right(int width) {
+        return right(width, LINEAR);
+    }
+
+    public EdgeFade right(int width, Curve curve) {
+        mRight = ramp(width, curve, 1);
+        return this;
+    }
+
+    public EdgeFade top(int width) {
+        return top(width, LINEAR);
+    }
+
+    public EdgeFade top(int width, Curve curve) {
+        mTop = ramp(width, curve, 0);
+        return this;
+    }
+
+    public EdgeFade bottom(int width) {
+        return bottom(width, LINEAR);
+    }
+
+    public EdgeFade bottom(int width, Curve curve) {
+        mBottom = ramp(width, curve, 1);
+        return this;
+    }
+
+    /**
+     * @return 下标为到边缘的距离；first 为1时下标0不用
+     */
+    private static int[] ramp(int width, Curve curve, int first) {
+        width = Math.max(0, width);
+        int[] ramp = new int[width + first];
+        for (int d = first; d < ramp.length; d++) {
+            ramp[d] = curve.alpha(d, width);
+        }
+        return ramp;
+    }
+
+    /**
+     * 直接修改可变的 bitmap，只读写四条边
+     * <p>
+     * bitmap 必须有透明通道(不是 RGB_565 且 hasAlpha())，否则写入的透明度会被丢弃；
+     * 其他情况用 {@link #apply(Bitmap, Config)}
+     */
+    public void apply(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int leftEnd = leftEnd(width);
+        int rightStart = rightStart(width);
+        int topEnd = topEnd(height);
+        int bottomStart = bottomStart(height);
+
+        // 左右两条竖边包含四个角，上下两条横边只处理中间的列
+        applyStrip(bitmap, 0, 0, leftEnd, height, width, height);
+        applyStrip(bitmap, rightStart, 0, width - rightStart, height, width, height);
+        applyStrip(bitmap, leftEnd, 0, rightStart - leftEnd, topEnd, width, height);
+        applyStrip(bitmap, leftEnd, bottomStart, rightStart - leftEnd, height - bottomStart,
+                width, height);
+    }
+
+    /**
+     * 拷贝为 config 格式的新图片后再处理，不修改 source
+     *
+     * @return 内存不足时返回null
+     */
+    public Bitmap apply(Bitmap source, Config config) {
+        try {
+            Bitmap bitmap = Bitmap.createBitmap(source.getWidth(), source.getHeight(), config);
+            new Canvas(bitmap).drawBitmap(source, 0, 0, null);
+            apply(bitmap);
+            return bitmap;
+        } catch (OutOfMemoryError e) {
+            LogUtil.e("EdgeFade", "apply:OutOfMemoryError");
+            return null;
+        }
+    }
+
+    private void applyStrip(Bitmap bitmap, int x, int y, int width, int height,
+                            int imageWidth, int imageHeight) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        int size = width * height;
+        if (mBuffer == null || mBuffer.length < size) {
+            mBuffer = new int[size];
+        }
+        bitmap.getPixels(mBuffer, 0, width, x, y, width, height);
+        render(mBuffer, x, y, width, height, imageWidth, imageHeight);
+        bitmap.setPixels(mBuffer, 0, width, x, y, width, height);
+    }
+
+    /**
+     * 处理一块像素，只访问落在四条边内的像素
+     *
+     * @param pixels      按行存放的 width * height 个像素，原地修改
+     * @param x           这块在原图中的横坐标
+     * @param y           这块在原图中的纵坐标
+     * @param imageWidth  原图宽度
+     * @param imageHeight 原图高度
+     */
+    public void render(int[] pixels, int x, int y, int width, int height, int imageWidth,
+                       int imageHeight) {
+        int leftEnd = leftEnd(imageWidth);
+        int rightStart = rightStart(imageWidth);
+        int topEnd = topEnd(imageHeight);
+        int bottomStart = bottomStart(imageHeight);
+
+        // 块内需要处理的列：[0, left) 和 [right, width)
+        int left = clamp(leftEnd - x, width);
+        int right = clamp(rightStart - x, width);
+        for (int i = 0; i < height; i++) {
+            int row = y + i;
+            int vertical = row < topEnd ? mTop[row]
+                    : row >= bottomStart ? mBottom[imageHeight - row] : 255;
+            int index = i * width;
+            if (vertical == 255 && row >= topEnd && row < bottomStart) {
+                // 中间的行只处理左右两边
+                for (int j = 0; j < left; j++) {
+                    pixels[index + j] = (mLeft[x + j] << 24) | (pixels[index + j] & 0x00ffffff);
+                }
+                for (int j = Math.max(right, left); j < width; j++) {
+                    int alp = mRight[imageWidth - x - j];
+                    pixels[index + j] = (alp << 24) | (pixels[index + j] & 0x00ffffff);
+                }
+            } else {
+                for (int j = 0; j < width; j++) {
+                    int column = x + j;
+                    int horizontal = column >= rightStart ? mRight[imageWidth - column]
+                            : column < leftEnd ? mLeft[column] : 255;
+                    int alp = horizontal * vertical / 255;
+                    pixels[index + j] = (alp << 24) | (pixels[index + j] & 0x00ffffff);
+                }
+            }
+        }
+    }
+
+    private int leftEnd(int imageWidth) {
+        return Math.min(mLeft.length, rightStart(imageWidth));
+    }
+
+    /**
+     * 两边重叠时以右边为准
+     */
+    private int rightStart(int imageWidth) {
+        return Math.max(0, imageWidth - (mRight.length - 1));
+    }
+
+    private int topEnd(int imageHeight) {
+        return Math.min(mTop.length, bottomStart(imageHeight));
+    }
+
+    private int bottomStart(int imageHeight) {
+        return Math.max(0, imageHeight - (mBottom.length - 1));
+    }
+
+    private static int clamp(int value, int max) {
+        return value < 0 ? 0 : (value > max ? max : value);
+    }
+}
@@ -0,0 +1,219 @@
+package com.common.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+
+/**
+ * 解码时按 EXIF 方向摆正图片
+ * <p>
+ * 方向变换和缩放合并成同一个矩阵，只在缩放后的尺寸上生成一次结果，
+ * 不再像 toRotate 那样先解码全图再旋转出另一张全尺寸的拷贝。
+ * 解析过的 EXIF 方向按文件路径缓存，文件修改时间或大小变化后重新解析。
+ * <p>
+ * <pre>
+ * Bitmap bitmap = ExifOrientation.decode(path, 1024, 1024);
+ * </pre>
+ */
+public class ExifOrientation {
+
+    private static final String LOGTAG = "ExifOrientation";
+    private static final int CACHE_SIZE = 32;
+
+    private static final MetricsRegistry.Timer DECODE_TIMER = MetricsRegistry
+            .timer("ExifOrientation.decode");
+
+    private static final Map<String, CachedExif> sCache = new LinkedHashMap<String, CachedExif>(
+            CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedExif> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private static final class CachedExif {
+        final long lastModified;
+        final long length;
+        final int orientation;
+
+        CachedExif(long lastModified, long length, int orientation) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.orientation = orientation;
+        }
+    }
+
+    /**
+     * @return EXIF 方向，没有或读取失败时为 {@link ExifInterface#ORIENTATION_NORMAL}
+     */
+    public static int getOrientation(String path) {
+        File file = new File(path);
+        long lastModified = file.lastModified();
+        long length = file.length();
+        synchronized (sCache) {
+            CachedExif entry = sCache.get(path);
+            if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+                return entry.orientation;
+            }
+        }
+        int orientation = ExifInterface.ORIENTATION_NORMAL;
+        try {
+            orientation = new ExifInterface(path).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            LogUtil.w(LOGTAG, "read exif failed: %s", path);
+        }
+        synchronized (sCache) {
+            sCache.put(path, new CachedExif(lastModified, length, orientation));
+        }
+        return orientation;
+    }
+
+    /**
+     * 丢弃缓存的方向，内存紧张时调用
+     */
+    public static void clearCache() {
+        synchronized (sCache) {
+            sCache.clear();
+        }
+    }
+
+    /**
+     * @return 顺时针旋转角度，翻转部分忽略
+     */
+    public static int getDegree(String path) {
+        switch (getOrientation(path)) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 摆正后宽高是否互换
+     */
+    public static boolean isTransposed(int orientation) {
+        return orientation >= ExifInterface.ORIENTATION_TRANSPOSE
+                && orientation <= ExifInterface.ORIENTATION_ROTATE_270;
+    }
+
+    /**
+     * 在 matrix 已有的变换之后追加方向变换；用于 createBitmap 时平移由它自动处理
+     */
+    public static void postOrientation(Matrix matrix, int orientation) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.postRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.postRotate(180);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.postRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.postRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.postRotate(-90);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 按 scale 缩放并摆正，两步合成一次绘制；不需要变换时直接返回 bitmap
+     *
+     * @return 生成新图片时回收 bitmap，可复用的放回 {@link BitmapPool}
+     */
+    public static Bitmap transform(Bitmap bitmap, int orientation, float scale) {
+        boolean oriented = orientation > ExifInterface.ORIENTATION_NORMAL
+                && orientation <= ExifInterface.ORIENTATION_ROTATE_270;
+        if (!oriented && scale == 1f) {
+            return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        postOrientation(matrix, orientation);
+        Bitmap result = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(),
+                bitmap.getHeight(), matrix, true);
+        if (result != bitmap) {
+            PictureUtils.recycleBitmap(bitmap);
+        }
+        return result;
+    }
+
+    /**
+     * 解码并摆正，摆正后的宽高不超过 maxWidth * maxHeight
+     * <p>
+     * 先用2的幂次采样率解码到不小于目标的尺寸，再把剩余的缩放和方向变换合成一次；
+     * maxWidth 或 maxHeight 为0时不限制，此时有方向的图片仍需要一次全尺寸的变换
+     *
+     * @return 文件不存在、无法解码或内存不足时返回null
+     */
+    public static Bitmap decode(String path, int maxWidth, int maxHeight) {
+        if (!FileUtils.isFileExist(path)) {
+            return null;
+        }
+        long start = MetricsRegistry.start();
+        try {
+            DecoderService.Request request = DecoderService.newRequest();
+            BitmapFactory.Options options = request.getOptions();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(path, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            int imageWidth = options.outWidth;
+            int imageHeight = options.outHeight;
+            int orientation = getOrientation(path);
+            // 限制条件换算到文件中未摆正的方向
+            boolean transposed = isTransposed(orientation);
+            int limitWidth = transposed ? maxHeight : maxWidth;
+            int limitHeight = transposed ? maxWidth : maxHeight;
+            float scale = 1f;
+            if (limitWidth > 0 && limitHeight > 0) {
+                scale = Math.min(1f, Math.min((float) limitWidth / imageWidth,
+                        (float) limitHeight / imageHeight));
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = 1;
+            while (options.inSampleSize * 2 * scale <= 1f) {
+                options.inSampleSize *= 2;
+            }
+            Bitmap bitmap = DecoderService.decodeFile(path, request);
+            if (bitmap == null) {
+                return null;
+            }
+            // 采样后剩余的缩放，按实际解出的宽度计算
+            float remaining = scale * imageWidth / bitmap.getWidth();
+            return transform(bitmap, orientation, Math.min(1f, remaining));
+        } catch (OutOfMemoryError e) {
+            LogUtil.e(LOGTAG, "decode:OutOfMemoryError");
+            return null;
+        } finally {
+            DECODE_TIMER.stop(start);
+        }
+    }
+}
@@ -21,7 +21,6 @@ import org.apache.http.protocol.HTTP;
 
 import android.os.Environment;
 import android.os.StatFs;
-import android.util.Log;
 
 /**
  * File Utils
@@ -33,6 +32,9 @@ public class FileUtils {
 
     public final static String FILE_EXTENSION_SEPARATOR = ".";
 
+    private static final MetricsRegistry.Timer WRITE_TIMER = MetricsRegistry
+            .timer("FileUtils.writeFile");
+
     /**
      * read file
      *
@@ -89,6 +91,7 @@ public class FileUtils {
     public static boolean writeFile(String filePath, String content,
                                     boolean append) {
         FileWriter fileWriter = null;
+        long start = MetricsRegistry.start();
         try {
             creatDirs(filePath);
             fileWriter = new FileWriter(filePath, append);
@@ -105,6 +108,7 @@ public class FileUtils {
                     throw new RuntimeException("IOException occurred. ", e);
                 }
             }
+            WRITE_TIMER.stop(start);
         }
     }
 
@@ -489,12 +493,12 @@ public class FileUtils {
         }
         File folder = new File(folderName);
         if (folder.exists() && folder.isDirectory()) {
-            Log.e("FileUtils", "creatDirs  folder.exists():" + "filePath:"
-                    + filePath + " folderName:" + folderName);
+            LogUtil.e("FileUtils", "creatDirs  folder.exists():filePath:%s folderName:%s",
+                    filePath, folderName);
             return true;
         } else {
             bret = folder.mkdirs();
-            Log.e("FileUtils", "creatDirs:" + bret + "filePath:" + filePath);
+            LogUtil.e("FileUtils", "creatDirs:%sfilePath:%s", bret, filePath);
         }
         return bret;
 
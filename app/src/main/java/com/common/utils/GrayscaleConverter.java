@@ -0,0 +1,266 @@
+package com.common.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+
+/**
+ * 整数去色
+ * <p>
+ * 直接在 ARGB int 数组上计算亮度 gray = (54 * r + 183 * g + 19 * b) >> 8，
+ * 权重与 ColorMatrix.setSaturation(0) 相同，不需要 Canvas、Paint 和 ColorFilter。
+ * Bitmap 按行分段读写，每个线程复用一段缓冲区，不会拷贝整张图的像素。
+ * <p>
+ * 批量接口在固定大小的线程池上并行处理，适合整个相册做 OCR 预处理：
+ * <pre>
+ * GrayscaleConverter.convertFiles(paths, Bitmap.Config.RGB_565,
+ *         new GrayscaleConverter.Callback() {
+ *             public void onConverted(int index, String path, Bitmap gray) {
+ *                 ...
+ *                 gray.recycle();
+ *             }
+ *         });
+ * </pre>
+ */
+public class GrayscaleConverter {
+
+    private static final String LOGTAG = "GrayscaleConverter";
+
+    private static final int WEIGHT_R = 54;
+    private static final int WEIGHT_G = 183;
+    private static final int WEIGHT_B = 19;
+
+    /**
+     * 每段读写的像素数
+     */
+    private static final int BAND_PIXELS = 64 * 1024;
+    /**
+     * 批量处理时每个线程同时持有解出的原图和去色结果，线程数不随核数无限增加
+     */
+    private static final int MAX_THREADS = 3;
+
+    private static final MetricsRegistry.Timer CONVERT_TIMER = MetricsRegistry
+            .timer("GrayscaleConverter.convert");
+    private static final MetricsRegistry.Timer BATCH_TIMER = MetricsRegistry
+            .timer("GrayscaleConverter.batch");
+
+    private static final ThreadLocal<int[]> sBand = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[BAND_PIXELS];
+        }
+    };
+
+    private static ExecutorService sExecutor;
+
+    /**
+     * 批量处理中每张图片完成时在工作线程回调
+     */
+    public interface Callback {
+        /**
+         * @param gray 去色结果，内存偏紧时可能按采样率缩小，解码失败或内存不足时为null；
+         *             不再使用时由调用者回收
+         */
+        void onConverted(int index, String path, Bitmap gray);
+    }
+
+    /**
+     * 去色核心循环，透明度不变；src 和 dst 可以是同一个数组
+     * <p>
+     * 循环体只有移位、与和乘加，没有分支和跨迭代依赖，JIT 可以向量化
+     */
+    public static void toGray(int[] src, int srcOffset, int[] dst, int dstOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            int pixel = src[srcOffset + i];
+            int gray = (((pixel >> 16) & 0xff) * WEIGHT_R + ((pixel >> 8) & 0xff) * WEIGHT_G
+                    + (pixel & 0xff) * WEIGHT_B) >> 8;
+            dst[dstOffset + i] = (pixel & 0xff000000) | (gray * 0x010101);
+        }
+    }
+
+    /**
+     * 去色为 RGB_565 格式的新图片，同 {@link PictureUtils#toGrayscale(Bitmap)}
+     */
+    public static Bitmap convert(Bitmap source) {
+        return convert(source, Config.RGB_565);
+    }
+
+    /**
+     * 去色为 config 格式的新图片，不修改 source
+     *
+     * @return 内存不足时返回null
+     */
+    public static Bitmap convert(Bitmap source, Config config) {
+        if (source == null) {
+            return null;
+        }
+        Bitmap output = null;
+        try {
+            output = Bitmap.createBitmap(source.getWidth(), source.getHeight(), config);
+            convert(source, output);
+            return output;
+        } catch (OutOfMemoryError e) {
+            LogUtil.e(LOGTAG, "convert:OutOfMemoryError");
+            if (output != null) {
+                output.recycle();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 原地去色，bitmap 必须是可变的
+     */
+    public static void convertInPlace(Bitmap bitmap) {
+        convert(bitmap, bitmap);
+    }
+
+    /**
+     * 按行分段读取 source，去色后写入同样大小的 target
+     */
+    private static void convert(Bitmap source, Bitmap target) {
+        long start = MetricsRegistry.start();
+        try {
+            int width = source.getWidth();
+            int height = source.getHeight();
+            int rows = Math.max(1, Math.min(height, BAND_PIXELS / Math.max(1, width)));
+            int[] band = sBand.get();
+            if (band.length < rows * width) {
+                band = new int[rows * width];
+                sBand.set(band);
+            }
+            for (int y = 0; y < height; y += rows) {
+                int h = Math.min(rows, height - y);
+                source.getPixels(band, 0, width, 0, y, width, h);
+                toGray(band, 0, band, 0, width * h);
+                target.setPixels(band, 0, width, 0, y, width, h);
+            }
+        } finally {
+            CONVERT_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * 并行去色一组图片，阻塞到全部完成
+     *
+     * @return 与 sources 一一对应，失败的位置为null
+     */
+    public static Bitmap[] convertAll(final Bitmap[] sources, final Config config) {
+        Bitmap[] results = new Bitmap[sources.length];
+        List<Callable<Bitmap>> tasks = new ArrayList<Callable<Bitmap>>(sources.length);
+        for (final Bitmap source : sources) {
+            tasks.add(new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() {
+                    return convert(source, config);
+                }
+            });
+        }
+        List<Future<Bitmap>> futures = invokeAll(tasks);
+        for (int i = 0; i < futures.size(); i++) {
+            results[i] = getResult(futures.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * 并行解码并去色一组图片文件，阻塞到全部完成；结果逐张交给 callback，不会同时持有所有图片
+     *
+     * @return 成功的张数
+     */
+    public static int convertFiles(List<String> paths, final Config config,
+                                   final Callback callback) {
+        final AtomicInteger converted = new AtomicInteger();
+        List<Callable<Bitmap>> tasks = new ArrayList<Callable<Bitmap>>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            final int index = i;
+            final String path = paths.get(i);
+            tasks.add(new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() {
+                    Bitmap gray = convertFile(path, config);
+                    if (gray != null) {
+                        converted.incrementAndGet();
+                    }
+                    callback.onConverted(index, path, gray);
+                    return null;
+                }
+            });
+        }
+        for (Future<Bitmap> future : invokeAll(tasks)) {
+            getResult(future);
+        }
+        return converted.get();
+    }
+
+    private static Bitmap convertFile(String path, Config config) {
+        if (!FileUtils.isFileExist(path)) {
+            return null;
+        }
+        // 经 DecoderService 限制同时解码的数量，放不下时按内存预算增大采样率
+        Bitmap decoded = DecoderService.decodeFile(path, DecoderService.newRequest());
+        if (decoded == null) {
+            return null;
+        }
+        try {
+            if (!MemoryBudget.canAllocateBitmap(decoded.getWidth(), decoded.getHeight(),
+                    config)) {
+                return null;
+            }
+            return convert(decoded, config);
+        } finally {
+            PictureUtils.recycleBitmap(decoded);
+        }
+    }
+
+    private static List<Future<Bitmap>> invokeAll(List<Callable<Bitmap>> tasks) {
+        long start = MetricsRegistry.start();
+        try {
+            return getExecutor().invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ArrayList<Future<Bitmap>>();
+        } finally {
+            BATCH_TIMER.stop(start);
+        }
+    }
+
+    private static Bitmap getResult(Future<Bitmap> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LogUtil.e(LOGTAG, "convert failed", e.getCause());
+        }
+        return null;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            int threads = Math.max(1, Math.min(MAX_THREADS,
+                    Runtime.getRuntime().availableProcessors() - 1));
+            sExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, LOGTAG + "-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+}
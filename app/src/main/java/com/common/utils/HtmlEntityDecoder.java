@@ -0,0 +1,260 @@
+package com.common.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+/**
+ * HTML 实体解码，一次扫描完成
+ * <p>
+ * 支持 HTML 4.01 全部命名实体(外加 &amp;apos;)以及 &amp;#123; / &amp;#x7B; 形式的数字实体。
+ * 命名实体必须以分号结尾，无法识别的实体原样保留。每个字符只处理一次，
+ * 因此 &amp;amp;lt; 解码为 &amp;lt; 而不会被再次解码。
+ */
+public class HtmlEntityDecoder {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    // "&#x10FFFF;" 以及最长的命名实体 "&thetasym;" 都不超过该长度
+    private static final int MAX_ENTITY_LENGTH = 12;
+    private static final int MAX_NAME_LENGTH = 8;
+    private static final int CONSUMED_SHIFT = 21;
+    private static final int CODE_POINT_MASK = (1 << CONSUMED_SHIFT) - 1;
+    private static final int REPLACEMENT_CHAR = 0xFFFD;
+
+    private static final Object[] ENTITIES = {
+            "quot", 34, "amp", 38, "apos", 39, "lt", 60, "gt", 62, "nbsp", 160, "iexcl", 161,
+            "cent", 162, "pound", 163, "curren", 164, "yen", 165, "brvbar", 166, "sect", 167,
+            "uml", 168, "copy", 169, "ordf", 170, "laquo", 171, "not", 172, "shy", 173, "reg", 174,
+            "macr", 175, "deg", 176, "plusmn", 177, "sup2", 178, "sup3", 179, "acute", 180,
+            "micro", 181, "para", 182, "middot", 183, "cedil", 184, "sup1", 185, "ordm", 186,
+            "raquo", 187, "frac14", 188, "frac12", 189, "frac34", 190, "iquest", 191,
+            "Agrave", 192, "Aacute", 193, "Acirc", 194, "Atilde", 195, "Auml", 196, "Aring", 197,
+            "AElig", 198, "Ccedil", 199, "Egrave", 200, "Eacute", 201, "Ecirc", 202, "Euml", 203,
+            "Igrave", 204, "Iacute", 205, "Icirc", 206, "Iuml", 207, "ETH", 208, "Ntilde", 209,
+            "Ograve", 210, "Oacute", 211, "Ocirc", 212, "Otilde", 213, "Ouml", 214, "times", 215,
+            "Oslash", 216, "Ugrave", 217, "Uacute", 218, "Ucirc", 219, "Uuml", 220, "Yacute", 221,
+            "THORN", 222, "szlig", 223, "agrave", 224, "aacute", 225, "acirc", 226, "atilde", 227,
+            "auml", 228, "aring", 229, "aelig", 230, "ccedil", 231, "egrave", 232, "eacute", 233,
+            "ecirc", 234, "euml", 235, "igrave", 236, "iacute", 237, "icirc", 238, "iuml", 239,
+            "eth", 240, "ntilde", 241, "ograve", 242, "oacute", 243, "ocirc", 244, "otilde", 245,
+            "ouml", 246, "divide", 247, "oslash", 248, "ugrave", 249, "uacute", 250, "ucirc", 251,
+            "uuml", 252, "yacute", 253, "thorn", 254, "yuml", 255, "OElig", 338, "oelig", 339,
+            "Scaron", 352, "scaron", 353, "Yuml", 376, "fnof", 402, "circ", 710, "tilde", 732,
+            "Alpha", 913, "Beta", 914, "Gamma", 915, "Delta", 916, "Epsilon", 917, "Zeta", 918,
+            "Eta", 919, "Theta", 920, "Iota", 921, "Kappa", 922, "Lambda", 923, "Mu", 924,
+            "Nu", 925, "Xi", 926, "Omicron", 927, "Pi", 928, "Rho", 929, "Sigma", 931, "Tau", 932,
+            "Upsilon", 933, "Phi", 934, "Chi", 935, "Psi", 936, "Omega", 937, "alpha", 945,
+            "beta", 946, "gamma", 947, "delta", 948, "epsilon", 949, "zeta", 950, "eta", 951,
+            "theta", 952, "iota", 953, "kappa", 954, "lambda", 955, "mu", 956, "nu", 957,
+            "xi", 958, "omicron", 959, "pi", 960, "rho", 961, "sigmaf", 962, "sigma", 963,
+            "tau", 964, "upsilon", 965, "phi", 966, "chi", 967, "psi", 968, "omega", 969,
+            "thetasym", 977, "upsih", 978, "piv", 982, "ensp", 8194, "emsp", 8195, "thinsp", 8201,
+            "zwnj", 8204, "zwj", 8205, "lrm", 8206, "rlm", 8207, "ndash", 8211, "mdash", 8212,
+            "lsquo", 8216, "rsquo", 8217, "sbquo", 8218, "ldquo", 8220, "rdquo", 8221,
+            "bdquo", 8222, "dagger", 8224, "Dagger", 8225, "bull", 8226, "hellip", 8230,
+            "permil", 8240, "prime", 8242, "Prime", 8243, "lsaquo", 8249, "rsaquo", 8250,
+            "oline", 8254, "frasl", 8260, "euro", 8364, "image", 8465, "weierp", 8472,
+            "real", 8476, "trade", 8482, "alefsym", 8501, "larr", 8592, "uarr", 8593, "rarr", 8594,
+            "darr", 8595, "harr", 8596, "crarr", 8629, "lArr", 8656, "uArr", 8657, "rArr", 8658,
+            "dArr", 8659, "hArr", 8660, "forall", 8704, "part", 8706, "exist", 8707, "empty", 8709,
+            "nabla", 8711, "isin", 8712, "notin", 8713, "ni", 8715, "prod", 8719, "sum", 8721,
+            "minus", 8722, "lowast", 8727, "radic", 8730, "prop", 8733, "infin", 8734, "ang", 8736,
+            "and", 8743, "or", 8744, "cap", 8745, "cup", 8746, "int", 8747, "there4", 8756,
+            "sim", 8764, "cong", 8773, "asymp", 8776, "ne", 8800, "equiv", 8801, "le", 8804,
+            "ge", 8805, "sub", 8834, "sup", 8835, "nsub", 8836, "sube", 8838, "supe", 8839,
+            "oplus", 8853, "otimes", 8855, "perp", 8869, "sdot", 8901, "lceil", 8968,
+            "rceil", 8969, "lfloor", 8970, "rfloor", 8971, "lang", 9001, "rang", 9002, "loz", 9674,
+            "spades", 9824, "clubs", 9827, "hearts", 9829, "diams", 9830
+    };
+
+    // 开放寻址哈希表，按名称字符直接计算哈希，查找时不需要截取子串
+    private static final int TABLE_MASK = 511;
+    private static final String[] TABLE_NAMES = new String[TABLE_MASK + 1];
+    private static final int[] TABLE_CODES = new int[TABLE_MASK + 1];
+
+    static {
+        for (int i = 0; i < ENTITIES.length; i += 2) {
+            String name = (String) ENTITIES[i];
+            int slot = hash(name, 0, name.length()) & TABLE_MASK;
+            while (TABLE_NAMES[slot] != null) {
+                slot = (slot + 1) & TABLE_MASK;
+            }
+            TABLE_NAMES[slot] = name;
+            TABLE_CODES[slot] = (Integer) ENTITIES[i + 1];
+        }
+    }
+
+    /**
+     * 解码字符串中的 HTML 实体，不含 '&amp;' 时直接返回原字符串
+     */
+    public static String decode(String source) {
+        if (source == null) {
+            return null;
+        }
+        int amp = source.indexOf('&');
+        if (amp < 0) {
+            return source;
+        }
+        int length = source.length();
+        StringBuilder sb = new StringBuilder(length);
+        int copyFrom = 0;
+        while (amp >= 0) {
+            int entity = parseEntity(source, amp, length);
+            if (entity >= 0) {
+                sb.append(source, copyFrom, amp);
+                sb.appendCodePoint(entity & CODE_POINT_MASK);
+                copyFrom = amp + (entity >>> CONSUMED_SHIFT);
+                amp = source.indexOf('&', copyFrom);
+            } else {
+                amp = source.indexOf('&', amp + 1);
+            }
+        }
+        sb.append(source, copyFrom, length);
+        return sb.toString();
+    }
+
+    /**
+     * 流式解码，适合较大的文档，内存占用只有一个固定大小的缓冲区。不会关闭 in 和 out。
+     */
+    public static void decode(Reader in, Writer out) throws IOException {
+        char[] buffer = new char[BUFFER_SIZE];
+        CharBuffer view = CharBuffer.wrap(buffer);
+        int length = 0;
+        boolean eof = false;
+        while (true) {
+            if (!eof) {
+                int read = in.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    length += read;
+                }
+            }
+            int i = 0;
+            int copyFrom = 0;
+            while (i < length) {
+                if (buffer[i] != '&') {
+                    i++;
+                    continue;
+                }
+                // 实体可能被缓冲区截断，留到下次读入后再处理
+                if (!eof && length - i <= MAX_ENTITY_LENGTH) {
+                    break;
+                }
+                int entity = parseEntity(view, i, length);
+                if (entity >= 0) {
+                    out.write(buffer, copyFrom, i - copyFrom);
+                    writeCodePoint(out, entity & CODE_POINT_MASK);
+                    i += entity >>> CONSUMED_SHIFT;
+                    copyFrom = i;
+                } else {
+                    i++;
+                }
+            }
+            out.write(buffer, copyFrom, i - copyFrom);
+            length -= i;
+            System.arraycopy(buffer, i, buffer, 0, length);
+            if (eof && length == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 解析 s 中从 amp 位置('&amp;')开始的实体
+     *
+     * @return 不是有效实体时返回-1，否则高位为消耗的字符数、低21位为码点
+     */
+    private static int parseEntity(CharSequence s, int amp, int end) {
+        int i = amp + 1;
+        if (i >= end) {
+            return -1;
+        }
+        int codePoint;
+        if (s.charAt(i) == '#') {
+            i++;
+            int radix = 10;
+            if (i < end && (s.charAt(i) == 'x' || s.charAt(i) == 'X')) {
+                radix = 16;
+                i++;
+            }
+            int digitsStart = i;
+            codePoint = 0;
+            while (i < end && i - amp < MAX_ENTITY_LENGTH) {
+                int digit = Character.digit(s.charAt(i), radix);
+                if (digit < 0) {
+                    break;
+                }
+                if (codePoint <= Character.MAX_CODE_POINT) {
+                    codePoint = codePoint * radix + digit;
+                }
+                i++;
+            }
+            if (i == digitsStart || i >= end || s.charAt(i) != ';') {
+                return -1;
+            }
+            if (codePoint == 0 || codePoint > Character.MAX_CODE_POINT
+                    || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                codePoint = REPLACEMENT_CHAR;
+            }
+        } else {
+            int nameStart = i;
+            while (i < end && i - nameStart <= MAX_NAME_LENGTH && isNameChar(s.charAt(i))) {
+                i++;
+            }
+            if (i == nameStart || i >= end || s.charAt(i) != ';') {
+                return -1;
+            }
+            codePoint = lookup(s, nameStart, i);
+            if (codePoint < 0) {
+                return -1;
+            }
+        }
+        return ((i + 1 - amp) << CONSUMED_SHIFT) | codePoint;
+    }
+
+    private static int lookup(CharSequence s, int start, int end) {
+        int length = end - start;
+        int slot = hash(s, start, end) & TABLE_MASK;
+        String name;
+        while ((name = TABLE_NAMES[slot]) != null) {
+            if (name.length() == length && regionEquals(name, s, start)) {
+                return TABLE_CODES[slot];
+            }
+            slot = (slot + 1) & TABLE_MASK;
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(String name, CharSequence s, int start) {
+        for (int i = 0, n = name.length(); i < n; i++) {
+            if (name.charAt(i) != s.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(CharSequence s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h ^ (h >>> 9);
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    private static void writeCodePoint(Writer out, int codePoint) throws IOException {
+        if (Character.isSupplementaryCodePoint(codePoint)) {
+            int offset = codePoint - Character.MIN_SUPPLEMENTARY_CODE_POINT;
+            out.write(Character.MIN_HIGH_SURROGATE + (offset >>> 10));
+            out.write(Character.MIN_LOW_SURROGATE + (offset & 0x3FF));
+        } else {
+            out.write(codePoint);
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.common.utils;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.graphics.Bitmap;
+
+/**
+ * 图片任务调度
+ * <p>
+ * 任务分为可见、预取和后台三个优先级，工作线程总是先取高优先级的任务。可见和预取队列后进先出，
+ * 列表快速滑动时最后滑到的图片最先处理；后台队列先进先出。
+ * 来源和变换相同的任务在完成前只执行一次，后来的请求共享同一个结果；重复请求的优先级更高时
+ * 把排队中的任务提到更高的队列。每个请求返回自己的 {@link Handle}，所有请求都取消后任务才取消，
+ * 还在排队的直接移出队列，正在执行的结果在完成时回收。
+ * <p>
+ * 同一个结果可能被多个请求共享，使用者不要自行回收。
+ * <p>
+ * <pre>
+ * ImageJobScheduler.Handle handle = ImageJobScheduler.getDefault()
+ *         .blur(path, 12, ImageJobScheduler.PRIORITY_VISIBLE);
+ * ...
+ * // 图片滑出屏幕
+ * handle.cancel(false);
+ * </pre>
+ */
+public class ImageJobScheduler {
+
+    private static final String LOGTAG = "ImageJobScheduler";
+
+    public static final int PRIORITY_VISIBLE = 0;
+    public static final int PRIORITY_PREFETCH = 1;
+    public static final int PRIORITY_BACKGROUND = 2;
+    private static final int LANE_COUNT = 3;
+
+    private static final MetricsRegistry.Timer QUEUE_TIMER = MetricsRegistry
+            .timer("ImageJobScheduler.queue");
+    private static final MetricsRegistry.Timer RUN_TIMER = MetricsRegistry
+            .timer("ImageJobScheduler.run");
+    private static final MetricsRegistry.Counter DEDUP_COUNTER = MetricsRegistry
+            .counter("ImageJobScheduler.dedup");
+    private static final MetricsRegistry.Counter CANCEL_COUNTER = MetricsRegistry
+            .counter("ImageJobScheduler.cancel");
+
+    private static ImageJobScheduler sDefault;
+
+    private final Object mLock = new Object();
+    @SuppressWarnings("unchecked")
+    private final LinkedList<Job>[] mLanes = new LinkedList[LANE_COUNT];
+    /**
+     * 排队或执行中的任务
+     */
+    private final Map<String, Job> mInFlight = new HashMap<String, Job>();
+    private final Thread[] mWorkers;
+
+    /**
+     * 共享线程数为 CPU 核数减一的默认调度器
+     */
+    public static synchronized ImageJobScheduler getDefault() {
+        if (sDefault == null) {
+            sDefault = new ImageJobScheduler(
+                    Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        }
+        return sDefault;
+    }
+
+    public ImageJobScheduler(int threads) {
+        for (int i = 0; i < LANE_COUNT; i++) {
+            mLanes[i] = new LinkedList<Job>();
+        }
+        mWorkers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, LOGTAG + "-" + (i + 1));
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].setPriority(Thread.NORM_PRIORITY - 1);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * 一个请求对任务结果的引用
+     */
+    public final class Handle implements Future<Bitmap> {
+        private final Job mJob;
+        private final AtomicBoolean mCancelled = new AtomicBoolean();
+
+        Handle(Job job) {
+            mJob = job;
+        }
+
+        /**
+         * 放弃这个请求；没有其他请求时取消任务
+         *
+         * @param mayInterruptIfRunning 忽略，执行中的任务不会被中断
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (mJob.isDone() || !mCancelled.compareAndSet(false, true)) {
+                return false;
+            }
+            release(mJob);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mCancelled.get() || mJob.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return mCancelled.get() || mJob.isDone();
+        }
+
+        @Override
+        public Bitmap get() throws InterruptedException, ExecutionException {
+            if (mCancelled.get()) {
+                throw new CancellationException();
+            }
+            return mJob.get();
+        }
+
+        @Override
+        public Bitmap get(long timeout, TimeUnit unit) throws InterruptedException,
+                ExecutionException, TimeoutException {
+            if (mCancelled.get()) {
+                throw new CancellationException();
+            }
+            return mJob.get(timeout, unit);
+        }
+
+        public String getKey() {
+            return mJob.mKey;
+        }
+    }
+
+    private final class Job extends FutureTask<Bitmap> {
+        final String mKey;
+        int mPriority;
+        int mRequesters;
+        boolean mQueued;
+        final long mSubmitTime = MetricsRegistry.start();
+
+        Job(String key, int priority, Callable<Bitmap> work) {
+            super(work);
+            mKey = key;
+            mPriority = priority;
+        }
+
+        @Override
+        protected void set(Bitmap bitmap) {
+            super.set(bitmap);
+            // 执行期间被取消，结果已经没有人要
+            if (isCancelled() && bitmap != null) {
+                PictureUtils.recycleBitmap(bitmap);
+            }
+        }
+
+        @Override
+        protected void done() {
+            synchronized (mLock) {
+                if (mInFlight.get(mKey) == this) {
+                    mInFlight.remove(mKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * 提交任务；来源和变换与未完成的任务相同时共享它的结果
+     *
+     * @param source    图片来源，如文件路径
+     * @param transform 变换及其参数，与 source 一起确定任务是否重复
+     * @param priority  {@link #PRIORITY_VISIBLE}、{@link #PRIORITY_PREFETCH} 或
+     *                  {@link #PRIORITY_BACKGROUND}
+     * @param work      在工作线程中执行，返回新建的图片；任务已被取消时结果会放回
+     *                  {@link BitmapPool}，不能返回缓存中或别处仍在使用的图片
+     */
+    public Handle submit(String source, String transform, int priority, Callable<Bitmap> work) {
+        priority = Math.max(PRIORITY_VISIBLE, Math.min(PRIORITY_BACKGROUND, priority));
+        String key = source + "|" + transform;
+        synchronized (mLock) {
+            Job job = mInFlight.get(key);
+            if (job != null && !job.isCancelled()) {
+                DEDUP_COUNTER.inc();
+                job.mRequesters++;
+                if (job.mQueued && priority <= job.mPriority) {
+                    // 重新请求的任务移到队列顶部，优先级更高时换到更高的队列
+                    mLanes[job.mPriority].remove(job);
+                    job.mPriority = priority;
+                    enqueue(job);
+                }
+                return new Handle(job);
+            }
+            job = new Job(key, priority, work);
+            job.mRequesters = 1;
+            mInFlight.put(key, job);
+            enqueue(job);
+            return new Handle(job);
+        }
+    }
+
+    /**
+     * 取消某个优先级上所有排队中的任务，如列表刷新后丢弃全部预取
+     *
+     * @return 取消的任务数
+     */
+    public int cancelQueued(int priority) {
+        synchronized (mLock) {
+            LinkedList<Job> lane = mLanes[priority];
+            int count = lane.size();
+            while (!lane.isEmpty()) {
+                Job job = lane.removeFirst();
+                job.mQueued = false;
+                job.mRequesters = 0;
+                job.cancel(false);
+                CANCEL_COUNTER.inc();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * @return 各优先级排队中的任务数
+     */
+    public int getQueuedCount(int priority) {
+        synchronized (mLock) {
+            return mLanes[priority].size();
+        }
+    }
+
+    private void enqueue(Job job) {
+        mLanes[job.mPriority].addLast(job);
+        job.mQueued = true;
+        mLock.notify();
+    }
+
+    private void release(Job job) {
+        synchronized (mLock) {
+            if (--job.mRequesters > 0) {
+                return;
+            }
+            if (job.mQueued) {
+                mLanes[job.mPriority].remove(job);
+                job.mQueued = false;
+            }
+            job.cancel(false);
+            CANCEL_COUNTER.inc();
+        }
+    }
+
+    private Job take() throws InterruptedException {
+        synchronized (mLock) {
+            while (true) {
+                for (int i = 0; i < LANE_COUNT; i++) {
+                    LinkedList<Job> lane = mLanes[i];
+                    if (!lane.isEmpty()) {
+                        Job job = i == PRIORITY_BACKGROUND ? lane.removeFirst()
+                                : lane.removeLast();
+                        job.mQueued = false;
+                        return job;
+                    }
+                }
+                mLock.wait();
+            }
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Job job;
+            try {
+                job = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            QUEUE_TIMER.stop(job.mSubmitTime);
+            long start = MetricsRegistry.start();
+            try {
+                job.run();
+            } catch (RuntimeException e) {
+                LogUtil.e(LOGTAG, "job failed: %s", e, job.mKey);
+            } finally {
+                RUN_TIMER.stop(start);
+            }
+        }
+    }
+
+    /**
+     * 同 {@link PictureUtils#BoxBlurFilter(String, int)}
+     */
+    public Handle blur(final String path, final int iterations, int priority) {
+        return submit(path, "blur:" + iterations, priority, new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return PictureUtils.BoxBlurFilter(path, iterations);
+            }
+        });
+    }
+
+    /**
+     * 同 {@link PictureUtils#toGrayscale(String)}
+     */
+    public Handle grayscale(final String path, int priority) {
+        return submit(path, "grayscale", priority, new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return PictureUtils.toGrayscale(path);
+            }
+        });
+    }
+
+    /**
+     * 同 {@link PictureUtils#getDetailBg(String, int, int)}
+     */
+    public Handle detailBg(final String path, final int width, final int height, int priority) {
+        return submit(path, "detailBg:" + width + "x" + height, priority,
+                new Callable<Bitmap>() {
+                    @Override
+                    public Bitmap call() {
+                        return PictureUtils.getDetailBg(path, width, height);
+                    }
+                });
+    }
+
+    /**
+     * 同 {@link PictureUtils#getMusicBg(String, int, int)}
+     */
+    public Handle musicBg(final String path, final int width, final int height, int priority) {
+        return submit(path, "musicBg:" + width + "x" + height, priority,
+                new Callable<Bitmap>() {
+                    @Override
+                    public Bitmap call() {
+                        return PictureUtils.getMusicBg(path, width, height);
+                    }
+                });
+    }
+
+    /**
+     * 同 {@link PictureUtils#decodeOriented(String, int, int)}，适合缩略图
+     */
+    public Handle thumbnail(final String path, final int width, final int height,
+                            int priority) {
+        return submit(path, "thumbnail:" + width + "x" + height, priority,
+                new Callable<Bitmap>() {
+                    @Override
+                    public Bitmap call() {
+                        return PictureUtils.decodeOriented(path, width, height);
+                    }
+                });
+    }
+
+    /**
+     * 从文件执行流水线；pipelineKey 需要唯一描述流水线的步骤和参数
+     */
+    public Handle pipeline(final String path, String pipelineKey, final BitmapPipeline pipeline,
+                           int priority) {
+        return submit(path, "pipeline:" + pipelineKey, priority, new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                // 流水线实例复用缓冲区，不能并发执行
+                synchronized (pipeline) {
+                    return pipeline.apply(path);
+                }
+            }
+        });
+    }
+}
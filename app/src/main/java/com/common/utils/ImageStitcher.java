@@ -0,0 +1,412 @@
+package com.common.utils;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * 多张图片拼接
+ * <p>
+ * 先由所有图片的尺寸算出最终画布和每张图的位置，输出只分配一次，每张图只绘制一次；
+ * 不会像两两合成那样反复创建包含前面所有图片的中间结果。
+ * 拼接结果本身也是 {@link TiledBitmapProcessor.TileSource}，可以按区域读取，
+ * {@link #writeJpeg} 逐条带读取并交给 {@link JpegStreamEncoder}，整张拼接图不需要放在内存中；
+ * 以文件加入的图片在读到时才按区域解码，条带越过它的下边缘后关闭。
+ * <p>
+ * 与 {@link PictureUtils#potoMix} 相同，图片沿拼接方向排列，另一方向靠上或靠左对齐，
+ * 空白处为背景色。
+ * <p>
+ * <pre>
+ * new ImageStitcher(PictureUtils.BOTTOM)
+ *         .add(path1)
+ *         .add(path2)
+ *         .writeJpeg(reportPath, 85);
+ * </pre>
+ */
+public class ImageStitcher implements TiledBitmapProcessor.TileSource {
+
+    private static final String LOGTAG = "ImageStitcher";
+
+    /**
+     * 写 JPEG 时每次读取的行数，JPEG MCU 高度的倍数
+     */
+    private static final int BAND_HEIGHT = 64;
+    private static final int MIN_BAND_HEIGHT = 16;
+
+    private static final MetricsRegistry.Timer STITCH_TIMER = MetricsRegistry
+            .timer("ImageStitcher.stitch");
+    private static final MetricsRegistry.Timer WRITE_JPEG_TIMER = MetricsRegistry
+            .timer("ImageStitcher.writeJpeg");
+
+    private static final class Entry {
+        final Bitmap bitmap;
+        final String path;
+        final int width;
+        final int height;
+        final boolean hasAlpha;
+        int x;
+        int y;
+        TiledBitmapProcessor.TileSource source;
+
+        Entry(Bitmap bitmap, String path, int width, int height, boolean hasAlpha) {
+            this.bitmap = bitmap;
+            this.path = path;
+            this.width = width;
+            this.height = height;
+            this.hasAlpha = hasAlpha;
+        }
+    }
+
+    private final int mDirection;
+    private final List<Entry> mEntries = new ArrayList<Entry>();
+    private int mBackgroundColor = Color.TRANSPARENT;
+    private boolean mLaidOut;
+    private int mWidth;
+    private int mHeight;
+    private int[] mScratch;
+
+    /**
+     * @param direction {@link PictureUtils#LEFT}、{@link PictureUtils#RIGHT}、
+     *                  {@link PictureUtils#TOP} 或 {@link PictureUtils#BOTTOM}，
+     *                  后加入的图片放在前面图片的哪一侧
+     */
+    public ImageStitcher(int direction) {
+        if (!isSupported(direction)) {
+            throw new IllegalArgumentException("unsupported direction " + direction);
+        }
+        mDirection = direction;
+    }
+
+    public static boolean isSupported(int direction) {
+        return direction == PictureUtils.LEFT || direction == PictureUtils.RIGHT
+                || direction == PictureUtils.TOP || direction == PictureUtils.BOTTOM;
+    }
+
+    /**
+     * 加入内存中的图片，null 或已回收的忽略；拼接完成前不能回收
+     */
+    public ImageStitcher add(Bitmap bitmap) {
+        if (bitmap != null && !bitmap.isRecycled()) {
+            mEntries.add(new Entry(bitmap, null, bitmap.getWidth(), bitmap.getHeight(),
+                    bitmap.hasAlpha()));
+            mLaidOut = false;
+        }
+        return this;
+    }
+
+    /**
+     * 加入图片文件，这里只读取尺寸；无法解析的文件忽略
+     */
+    public ImageStitcher add(String path) {
+        if (!FileUtils.isFileExist(path)) {
+            LogUtil.w(LOGTAG, "file not found: %s", path);
+            return this;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            LogUtil.w(LOGTAG, "cannot decode %s", path);
+            return this;
+        }
+        mEntries.add(new Entry(null, path, options.outWidth, options.outHeight,
+                !"image/jpeg".equals(options.outMimeType)));
+        mLaidOut = false;
+        return this;
+    }
+
+    /**
+     * 空白处的颜色，默认透明；写 JPEG 时透明背景按白色处理
+     */
+    public ImageStitcher setBackgroundColor(int color) {
+        mBackgroundColor = color;
+        return this;
+    }
+
+    public int getCount() {
+        return mEntries.size();
+    }
+
+    @Override
+    public int getWidth() {
+        layout();
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        layout();
+        return mHeight;
+    }
+
+    /**
+     * @return 结果是否需要透明度：有图片带透明度，或者尺寸不同留下了透明的空白
+     */
+    public boolean hasAlpha() {
+        layout();
+        boolean gaps = false;
+        for (Entry entry : mEntries) {
+            if (entry.hasAlpha) {
+                return true;
+            }
+            gaps |= isHorizontal() ? entry.height != mHeight : entry.width != mWidth;
+        }
+        return gaps && Color.alpha(mBackgroundColor) != 0xff;
+    }
+
+    private boolean isHorizontal() {
+        return mDirection == PictureUtils.LEFT || mDirection == PictureUtils.RIGHT;
+    }
+
+    /**
+     * 计算画布大小和每张图的位置
+     */
+    private void layout() {
+        if (mLaidOut) {
+            return;
+        }
+        // LEFT、TOP 每张新图放在最前面，最后加入的在最左或最上
+        boolean reversed = mDirection == PictureUtils.LEFT || mDirection == PictureUtils.TOP;
+        boolean horizontal = isHorizontal();
+        int count = mEntries.size();
+        int offset = 0;
+        int cross = 0;
+        for (int i = 0; i < count; i++) {
+            Entry entry = mEntries.get(reversed ? count - 1 - i : i);
+            if (horizontal) {
+                entry.x = offset;
+                entry.y = 0;
+                offset += entry.width;
+                cross = Math.max(cross, entry.height);
+            } else {
+                entry.x = 0;
+                entry.y = offset;
+                offset += entry.height;
+                cross = Math.max(cross, entry.width);
+            }
+        }
+        mWidth = horizontal ? offset : cross;
+        mHeight = horizontal ? cross : offset;
+        mLaidOut = true;
+    }
+
+    /**
+     * 拼接成一张新的 Bitmap，只分配一次
+     *
+     * @return 没有图片或内存不足时返回null
+     */
+    public Bitmap toBitmap() {
+        layout();
+        if (mEntries.isEmpty()) {
+            return null;
+        }
+        Bitmap.Config config = BitmapConfigPolicy.select(hasAlpha(), mWidth, mHeight);
+        if (!MemoryBudget.canAllocateBitmap(mWidth, mHeight, config)) {
+            return null;
+        }
+        long start = MetricsRegistry.start();
+        Bitmap output = null;
+        try {
+            output = Bitmap.createBitmap(mWidth, mHeight, config);
+            Canvas canvas = new Canvas(output);
+            if (mBackgroundColor != Color.TRANSPARENT) {
+                canvas.drawColor(mBackgroundColor);
+            }
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            for (Entry entry : mEntries) {
+                if (entry.bitmap != null) {
+                    canvas.drawBitmap(entry.bitmap, entry.x, entry.y, null);
+                    continue;
+                }
+                Bitmap decoded = DecoderService.decodeFile(entry.path,
+                        DecoderService.newRequest());
+                if (decoded == null) {
+                    LogUtil.w(LOGTAG, "decode failed: %s", entry.path);
+                    continue;
+                }
+                // 内存预算可能使解出的图片小于原图，按原图位置放大绘制
+                canvas.drawBitmap(decoded, null, new Rect(entry.x, entry.y,
+                        entry.x + entry.width, entry.y + entry.height), paint);
+                PictureUtils.recycleBitmap(decoded);
+            }
+            return output;
+        } catch (OutOfMemoryError e) {
+            LogUtil.e(LOGTAG, "toBitmap:OutOfMemoryError");
+            if (output != null) {
+                output.recycle();
+            }
+            return null;
+        } finally {
+            STITCH_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * 拼接并直接编码为 JPEG 文件，不创建整张拼接图
+     *
+     * @return 是否成功；宽或高超过 {@link JpegStreamEncoder#MAX_SIZE} 时不写文件，
+     * 其他失败时删除不完整的文件
+     */
+    public boolean writeJpeg(String path, int quality) {
+        if (mEntries.isEmpty() || StringUtils.isEmpty(path)) {
+            return false;
+        }
+        if (getWidth() > JpegStreamEncoder.MAX_SIZE || getHeight() > JpegStreamEncoder.MAX_SIZE) {
+            LogUtil.w(LOGTAG, "too large for JPEG, %dx%d", getWidth(), getHeight());
+            return false;
+        }
+        FileUtils.creatDirs(path);
+        OutputStream out = null;
+        boolean written = false;
+        try {
+            out = new FileOutputStream(path);
+            writeJpeg(out, quality);
+            written = true;
+        } catch (IOException e) {
+            LogUtil.e(LOGTAG, "writeJpeg failed: %s", e, path);
+        } catch (OutOfMemoryError e) {
+            LogUtil.e(LOGTAG, "writeJpeg:OutOfMemoryError");
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    LogUtil.w(LOGTAG, "close failed: %s", e, path);
+                    written = false;
+                }
+            }
+            // 包括未捕获的运行时异常，都不留下不完整的文件
+            if (!written) {
+                FileUtils.deleteFile(path);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * 逐条带读取拼接结果并编码；out 不会被关闭
+     *
+     * @throws IOException 读取图片或写入失败
+     */
+    public void writeJpeg(OutputStream out, int quality) throws IOException {
+        layout();
+        if (mEntries.isEmpty()) {
+            throw new IllegalStateException("nothing to stitch");
+        }
+        long start = MetricsRegistry.start();
+        try {
+            int background = Color.alpha(mBackgroundColor) == 0xff ? mBackgroundColor
+                    : Color.WHITE;
+            int bandHeight = BAND_HEIGHT;
+            while (bandHeight > MIN_BAND_HEIGHT
+                    && !MemoryBudget.fitsHeap((long) mWidth * bandHeight * 4 * 2)) {
+                bandHeight /= 2;
+            }
+            int[] band = new int[mWidth * bandHeight];
+            JpegStreamEncoder encoder = new JpegStreamEncoder(out, mWidth, mHeight, quality);
+            for (int y = 0; y < mHeight; y += bandHeight) {
+                int rows = Math.min(bandHeight, mHeight - y);
+                read(0, y, mWidth, rows, band);
+                compositeOver(band, mWidth * rows, background);
+                encoder.writeRows(band, 0, mWidth, rows);
+            }
+            encoder.finish();
+        } finally {
+            close();
+            WRITE_JPEG_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * 把半透明像素合成到不透明的背景上
+     */
+    private static void compositeOver(int[] pixels, int length, int background) {
+        int br = (background >> 16) & 0xff;
+        int bg = (background >> 8) & 0xff;
+        int bb = background & 0xff;
+        for (int i = 0; i < length; i++) {
+            int pixel = pixels[i];
+            int alpha = pixel >>> 24;
+            if (alpha == 0xff) {
+                continue;
+            }
+            int inverse = 255 - alpha;
+            int r = (((pixel >> 16) & 0xff) * alpha + br * inverse) / 255;
+            int g = (((pixel >> 8) & 0xff) * alpha + bg * inverse) / 255;
+            int b = ((pixel & 0xff) * alpha + bb * inverse) / 255;
+            pixels[i] = 0xff000000 | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    /**
+     * 读取拼接结果的一个区域；按从上到下的顺序读取时，已经读完的文件来源会及时关闭
+     */
+    @Override
+    public void read(int x, int y, int width, int height, int[] pixels) throws IOException {
+        layout();
+        Arrays.fill(pixels, 0, width * height, mBackgroundColor);
+        for (Entry entry : mEntries) {
+            if (entry.y + entry.height <= y) {
+                closeSource(entry);
+                continue;
+            }
+            int left = Math.max(x, entry.x);
+            int top = Math.max(y, entry.y);
+            int right = Math.min(x + width, entry.x + entry.width);
+            int bottom = Math.min(y + height, entry.y + entry.height);
+            if (left >= right || top >= bottom) {
+                continue;
+            }
+            int w = right - left;
+            int h = bottom - top;
+            if (mScratch == null || mScratch.length < w * h) {
+                mScratch = new int[w * h];
+            }
+            openSource(entry).read(left - entry.x, top - entry.y, w, h, mScratch);
+            for (int row = 0; row < h; row++) {
+                System.arraycopy(mScratch, row * w, pixels,
+                        (top - y + row) * width + (left - x), w);
+            }
+        }
+    }
+
+    private TiledBitmapProcessor.TileSource openSource(Entry entry) throws IOException {
+        if (entry.source == null) {
+            entry.source = entry.bitmap != null
+                    ? new TiledBitmapProcessor.BitmapSource(entry.bitmap)
+                    : TiledBitmapProcessor.openFile(entry.path);
+            if (entry.source == null) {
+                throw new IOException("cannot open " + entry.path);
+            }
+        }
+        return entry.source;
+    }
+
+    private static void closeSource(Entry entry) {
+        if (entry.source != null) {
+            entry.source.close();
+            entry.source = null;
+        }
+    }
+
+    /**
+     * 关闭所有打开的文件来源，不会回收加入的 Bitmap
+     */
+    @Override
+    public void close() {
+        for (Entry entry : mEntries) {
+            closeSource(entry);
+        }
+        mScratch = null;
+    }
+}
@@ -0,0 +1,538 @@
+package com.common.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 逐行写入的 baseline JPEG 编码器
+ * <p>
+ * Bitmap.compress 需要整张图已经在内存中；这里每攒够16行(一个 MCU 行)就编码写出，
+ * 内存只和宽度有关，适合把分块处理或拼接的结果直接写成文件。
+ * 输出为 YCbCr 4:2:0、标准哈夫曼表，忽略透明度，透明像素需要事先合成到背景上。
+ * <p>
+ * 也可以作为 {@link TiledBitmapProcessor.TileSink}，块按从左到右、从上到下的顺序写入，
+ * 一行块写满后编码。
+ * <p>
+ * <pre>
+ * JpegStreamEncoder encoder = new JpegStreamEncoder(out, width, height, 85);
+ * TiledBitmapProcessor.process(source, filter, encoder, TiledBitmapProcessor.DEFAULT_TILE_SIZE);
+ * encoder.finish();
+ * </pre>
+ */
+public class JpegStreamEncoder implements TiledBitmapProcessor.TileSink {
+
+    /**
+     * JPEG 文件头中宽高只有16位
+     */
+    public static final int MAX_SIZE = 65535;
+
+    private static final int MCU_SIZE = 16;
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final MetricsRegistry.Timer ENCODE_TIMER = MetricsRegistry
+            .timer("JpegStreamEncoder.encode");
+
+    /**
+     * 之字形序号到自然顺序下标
+     */
+    private static final int[] NATURAL_ORDER = {
+            0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63};
+
+    private static final int[] LUMINANCE_QUANT = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99};
+
+    private static final int[] CHROMINANCE_QUANT = {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99};
+
+    private static final int[] DC_LUMINANCE_BITS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0,
+            0, 0, 0};
+    private static final int[] DC_LUMINANCE_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+    private static final int[] DC_CHROMINANCE_BITS = {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0,
+            0, 0, 0};
+    private static final int[] DC_CHROMINANCE_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+    private static final int[] AC_LUMINANCE_BITS = {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0,
+            0, 1, 0x7d};
+    private static final int[] AC_LUMINANCE_VALUES = {
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51,
+            0x61, 0x07, 0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1,
+            0x15, 0x52, 0xd1, 0xf0, 0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18,
+            0x19, 0x1a, 0x25, 0x26, 0x27, 0x28, 0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39,
+            0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57,
+            0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a, 0x73, 0x74, 0x75,
+            0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89, 0x8a, 0x92,
+            0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+            0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+            0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8,
+            0xd9, 0xda, 0xe1, 0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2,
+            0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8, 0xf9, 0xfa};
+    private static final int[] AC_CHROMINANCE_BITS = {0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0,
+            1, 2, 0x77};
+    private static final int[] AC_CHROMINANCE_VALUES = {
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07,
+            0x61, 0x71, 0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09,
+            0x23, 0x33, 0x52, 0xf0, 0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25,
+            0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26, 0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38,
+            0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49, 0x4a, 0x53, 0x54, 0x55, 0x56,
+            0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a, 0x73, 0x74,
+            0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+            0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba,
+            0xc2, 0xc3, 0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6,
+            0xd7, 0xd8, 0xd9, 0xda, 0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2,
+            0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8, 0xf9, 0xfa};
+
+    /**
+     * AAN 算法各行列的缩放系数
+     */
+    private static final double[] AAN_SCALE = {1.0, 1.387039845, 1.306562965, 1.175875602,
+            1.0, 0.785694958, 0.541196100, 0.275899379};
+
+    private static final int[][] DC_LUMINANCE = buildHuffman(DC_LUMINANCE_BITS,
+            DC_LUMINANCE_VALUES);
+    private static final int[][] DC_CHROMINANCE = buildHuffman(DC_CHROMINANCE_BITS,
+            DC_CHROMINANCE_VALUES);
+    private static final int[][] AC_LUMINANCE = buildHuffman(AC_LUMINANCE_BITS,
+            AC_LUMINANCE_VALUES);
+    private static final int[][] AC_CHROMINANCE = buildHuffman(AC_CHROMINANCE_BITS,
+            AC_CHROMINANCE_VALUES);
+
+    private final OutputStream mOut;
+    private final int mWidth;
+    private final int mHeight;
+    /**
+     * 宽度补齐到16的倍数
+     */
+    private final int mPaddedWidth;
+    private final int[] mLuminanceQuant = new int[64];
+    private final int[] mChrominanceQuant = new int[64];
+    private final float[] mLuminanceDivisors = new float[64];
+    private final float[] mChrominanceDivisors = new float[64];
+
+    /**
+     * 当前 MCU 行的 RGB 像素，mRows 行已写入
+     */
+    private final int[] mRowPixels;
+    private int mRows;
+    private int mRowsEncoded;
+    /**
+     * 作为 TileSink 时拼接一行块
+     */
+    private int[] mBand;
+
+    private final float[] mY;
+    private final float[] mCb;
+    private final float[] mCr;
+    private final float[] mBlock = new float[64];
+    private final int[] mCoefficients = new int[64];
+    private int mLastY;
+    private int mLastCb;
+    private int mLastCr;
+
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mBufferLength;
+    private int mBitBuffer;
+    private int mBitCount;
+    private boolean mFinished;
+
+    /**
+     * 构造时立即写出文件头
+     *
+     * @param out     输出流，{@link #finish()} 时刷新但不关闭
+     * @param width   图片宽度，1~{@link #MAX_SIZE}
+     * @param height  图片高度，1~{@link #MAX_SIZE}
+     * @param quality 1~100
+     * @throws IOException 写入失败
+     */
+    public JpegStreamEncoder(OutputStream out, int width, int height, int quality)
+            throws IOException {
+        if (width <= 0 || height <= 0 || width > MAX_SIZE || height > MAX_SIZE) {
+            throw new IllegalArgumentException("invalid size " + width + "x" + height);
+        }
+        mOut = out;
+        mWidth = width;
+        mHeight = height;
+        mPaddedWidth = (width + MCU_SIZE - 1) / MCU_SIZE * MCU_SIZE;
+        mRowPixels = new int[mPaddedWidth * MCU_SIZE];
+        mY = new float[mPaddedWidth * MCU_SIZE];
+        mCb = new float[mPaddedWidth / 2 * MCU_SIZE / 2];
+        mCr = new float[mPaddedWidth / 2 * MCU_SIZE / 2];
+        initQuant(quality);
+        writeHeaders();
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * 写入若干整行像素
+     *
+     * @param pixels 按行存放的 ARGB 像素
+     * @param offset 第一行在 pixels 中的起点
+     * @param stride 行距
+     * @param rows   行数，累计不能超过图片高度
+     * @throws IOException 写入失败
+     */
+    public void writeRows(int[] pixels, int offset, int stride, int rows) throws IOException {
+        if (mFinished || mRowsEncoded + mRows + rows > mHeight) {
+            throw new IllegalStateException("too many rows");
+        }
+        long start = MetricsRegistry.start();
+        try {
+            for (int i = 0; i < rows; i++) {
+                int dst = mRows * mPaddedWidth;
+                System.arraycopy(pixels, offset + i * stride, mRowPixels, dst, mWidth);
+                // 右侧补齐部分重复最后一列，避免边缘出现色带
+                int last = mRowPixels[dst + mWidth - 1];
+                for (int x = mWidth; x < mPaddedWidth; x++) {
+                    mRowPixels[dst + x] = last;
+                }
+                if (++mRows == MCU_SIZE) {
+                    encodeMcuRow();
+                }
+            }
+        } finally {
+            ENCODE_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * 按 {@link TiledBitmapProcessor} 的顺序写入一块，一行块写满后编码
+     */
+    @Override
+    public void write(int[] pixels, int offset, int stride, int x, int y, int width,
+                      int height) throws IOException {
+        if (x == 0 && width == mWidth) {
+            writeRows(pixels, offset, stride, height);
+            return;
+        }
+        if (mBand == null || mBand.length < mWidth * height) {
+            mBand = new int[mWidth * height];
+        }
+        for (int i = 0; i < height; i++) {
+            System.arraycopy(pixels, offset + i * stride, mBand, i * mWidth + x, width);
+        }
+        if (x + width == mWidth) {
+            writeRows(mBand, 0, mWidth, height);
+        }
+    }
+
+    /**
+     * 补齐最后一个 MCU 行并写出文件尾；所有行都写入后调用
+     *
+     * @throws IOException 写入失败
+     */
+    public void finish() throws IOException {
+        if (mFinished) {
+            return;
+        }
+        if (mRowsEncoded + mRows != mHeight) {
+            throw new IllegalStateException("expected " + mHeight + " rows, got "
+                    + (mRowsEncoded + mRows));
+        }
+        if (mRows > 0) {
+            // 下方补齐部分重复最后一行
+            int last = (mRows - 1) * mPaddedWidth;
+            for (int i = mRows; i < MCU_SIZE; i++) {
+                System.arraycopy(mRowPixels, last, mRowPixels, i * mPaddedWidth, mPaddedWidth);
+            }
+            mRows = MCU_SIZE;
+            encodeMcuRow();
+        }
+        // 剩余的位用1补齐
+        writeBits(0x7f, 7);
+        flushBuffer();
+        mOut.write(0xff);
+        mOut.write(0xd9);
+        mOut.flush();
+        mFinished = true;
+    }
+
+    private void initQuant(int quality) {
+        quality = Math.max(1, Math.min(100, quality));
+        int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+        for (int i = 0; i < 64; i++) {
+            mLuminanceQuant[i] = Math.max(1, Math.min(255,
+                    (LUMINANCE_QUANT[i] * scale + 50) / 100));
+            mChrominanceQuant[i] = Math.max(1, Math.min(255,
+                    (CHROMINANCE_QUANT[i] * scale + 50) / 100));
+        }
+        for (int row = 0, i = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++, i++) {
+                double aan = AAN_SCALE[row] * AAN_SCALE[col] * 8;
+                mLuminanceDivisors[i] = (float) (1.0 / (mLuminanceQuant[i] * aan));
+                mChrominanceDivisors[i] = (float) (1.0 / (mChrominanceQuant[i] * aan));
+            }
+        }
+    }
+
+    private void writeHeaders() throws IOException {
+        // SOI + JFIF APP0
+        writeBytes(0xff, 0xd8, 0xff, 0xe0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1,
+                0, 0);
+        // DQT
+        writeBytes(0xff, 0xdb, 0, 2 + 2 * 65);
+        writeQuant(0, mLuminanceQuant);
+        writeQuant(1, mChrominanceQuant);
+        // SOF0：Y 2x2 采样，Cb、Cr 1x1
+        writeBytes(0xff, 0xc0, 0, 17, 8, mHeight >> 8, mHeight & 0xff, mWidth >> 8,
+                mWidth & 0xff, 3, 1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1);
+        // DHT
+        int length = 2 + 4 * 17 + DC_LUMINANCE_VALUES.length + DC_CHROMINANCE_VALUES.length
+                + AC_LUMINANCE_VALUES.length + AC_CHROMINANCE_VALUES.length;
+        writeBytes(0xff, 0xc4, length >> 8, length & 0xff);
+        writeHuffman(0x00, DC_LUMINANCE_BITS, DC_LUMINANCE_VALUES);
+        writeHuffman(0x10, AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES);
+        writeHuffman(0x01, DC_CHROMINANCE_BITS, DC_CHROMINANCE_VALUES);
+        writeHuffman(0x11, AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES);
+        // SOS
+        writeBytes(0xff, 0xda, 0, 12, 3, 1, 0x00, 2, 0x11, 3, 0x11, 0, 63, 0);
+    }
+
+    private void writeQuant(int id, int[] quant) throws IOException {
+        writeByte(id);
+        for (int i = 0; i < 64; i++) {
+            writeByte(quant[NATURAL_ORDER[i]]);
+        }
+    }
+
+    private void writeHuffman(int id, int[] bits, int[] values) throws IOException {
+        writeByte(id);
+        for (int bit : bits) {
+            writeByte(bit);
+        }
+        for (int value : values) {
+            writeByte(value);
+        }
+    }
+
+    /**
+     * @return [0] 每个符号的码字，[1] 码长
+     */
+    private static int[][] buildHuffman(int[] bits, int[] values) {
+        int[] codes = new int[256];
+        int[] lengths = new int[256];
+        int code = 0;
+        int k = 0;
+        for (int length = 1; length <= 16; length++) {
+            for (int i = 0; i < bits[length - 1]; i++) {
+                codes[values[k]] = code++;
+                lengths[values[k]] = length;
+                k++;
+            }
+            code <<= 1;
+        }
+        return new int[][]{codes, lengths};
+    }
+
+    private void encodeMcuRow() throws IOException {
+        int width = mPaddedWidth;
+        int chromaWidth = width / 2;
+        // 转为 YCbCr 并减去128，色度按 2x2 取平均
+        for (int y = 0; y < MCU_SIZE; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int pixel = mRowPixels[row + x];
+                int r = (pixel >> 16) & 0xff;
+                int g = (pixel >> 8) & 0xff;
+                int b = pixel & 0xff;
+                mY[row + x] = 0.299f * r + 0.587f * g + 0.114f * b - 128f;
+            }
+        }
+        for (int y = 0; y < MCU_SIZE / 2; y++) {
+            int top = 2 * y * width;
+            int bottom = top + width;
+            for (int x = 0; x < chromaWidth; x++) {
+                int p0 = mRowPixels[top + 2 * x];
+                int p1 = mRowPixels[top + 2 * x + 1];
+                int p2 = mRowPixels[bottom + 2 * x];
+                int p3 = mRowPixels[bottom + 2 * x + 1];
+                float r = (((p0 >> 16) & 0xff) + ((p1 >> 16) & 0xff) + ((p2 >> 16) & 0xff)
+                        + ((p3 >> 16) & 0xff)) * 0.25f;
+                float g = (((p0 >> 8) & 0xff) + ((p1 >> 8) & 0xff) + ((p2 >> 8) & 0xff)
+                        + ((p3 >> 8) & 0xff)) * 0.25f;
+                float b = ((p0 & 0xff) + (p1 & 0xff) + (p2 & 0xff) + (p3 & 0xff)) * 0.25f;
+                mCb[y * chromaWidth + x] = -0.168736f * r - 0.331264f * g + 0.5f * b;
+                mCr[y * chromaWidth + x] = 0.5f * r - 0.418688f * g - 0.081312f * b;
+            }
+        }
+        for (int x = 0; x < width; x += MCU_SIZE) {
+            mLastY = encodeBlock(mY, x, width, mLuminanceDivisors, mLastY, DC_LUMINANCE,
+                    AC_LUMINANCE);
+            mLastY = encodeBlock(mY, x + 8, width, mLuminanceDivisors, mLastY, DC_LUMINANCE,
+                    AC_LUMINANCE);
+            mLastY = encodeBlock(mY, 8 * width + x, width, mLuminanceDivisors, mLastY,
+                    DC_LUMINANCE, AC_LUMINANCE);
+            mLastY = encodeBlock(mY, 8 * width + x + 8, width, mLuminanceDivisors, mLastY,
+                    DC_LUMINANCE, AC_LUMINANCE);
+            mLastCb = encodeBlock(mCb, x / 2, chromaWidth, mChrominanceDivisors, mLastCb,
+                    DC_CHROMINANCE, AC_CHROMINANCE);
+            mLastCr = encodeBlock(mCr, x / 2, chromaWidth, mChrominanceDivisors, mLastCr,
+                    DC_CHROMINANCE, AC_CHROMINANCE);
+        }
+        mRowsEncoded += mRows;
+        mRows = 0;
+    }
+
+    /**
+     * 变换、量化并编码一个 8x8 块
+     *
+     * @return 这个块的 DC 系数，用于下一个块的差分
+     */
+    private int encodeBlock(float[] plane, int offset, int stride, float[] divisors,
+                            int lastDc, int[][] dcTable, int[][] acTable)
+            throws IOException {
+        float[] block = mBlock;
+        for (int y = 0; y < 8; y++) {
+            System.arraycopy(plane, offset + y * stride, block, y * 8, 8);
+        }
+        forwardDct(block);
+        int[] coefficients = mCoefficients;
+        for (int i = 0; i < 64; i++) {
+            coefficients[i] = Math.round(block[i] * divisors[i]);
+        }
+
+        int dc = coefficients[0];
+        writeValue(dc - lastDc, dcTable, 0);
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int ac = coefficients[NATURAL_ORDER[k]];
+            if (ac == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                // ZRL：16个0
+                writeBits(acTable[0][0xf0], acTable[1][0xf0]);
+                run -= 16;
+            }
+            writeValue(ac, acTable, run << 4);
+            run = 0;
+        }
+        if (run > 0) {
+            // EOB
+            writeBits(acTable[0][0], acTable[1][0]);
+        }
+        return dc;
+    }
+
+    /**
+     * 写出 (游程, 位数) 符号和数值本身
+     */
+    private void writeValue(int value, int[][] table, int run) throws IOException {
+        int magnitude = value < 0 ? -value : value;
+        int size = 0;
+        while (magnitude != 0) {
+            size++;
+            magnitude >>= 1;
+        }
+        int symbol = run | size;
+        writeBits(table[0][symbol], table[1][symbol]);
+        if (size > 0) {
+            writeBits(value < 0 ? value - 1 : value, size);
+        }
+    }
+
+    /**
+     * AAN 浮点 DCT，结果未除以缩放系数
+     */
+    private static void forwardDct(float[] data) {
+        for (int pass = 0; pass < 2; pass++) {
+            // 第一遍处理行，第二遍处理列
+            int step = pass == 0 ? 1 : 8;
+            int next = pass == 0 ? 8 : 1;
+            for (int i = 0, base = 0; i < 8; i++, base += next) {
+                int i0 = base, i1 = base + step, i2 = base + 2 * step, i3 = base + 3 * step;
+                int i4 = base + 4 * step, i5 = base + 5 * step, i6 = base + 6 * step;
+                int i7 = base + 7 * step;
+                float tmp0 = data[i0] + data[i7];
+                float tmp7 = data[i0] - data[i7];
+                float tmp1 = data[i1] + data[i6];
+                float tmp6 = data[i1] - data[i6];
+                float tmp2 = data[i2] + data[i5];
+                float tmp5 = data[i2] - data[i5];
+                float tmp3 = data[i3] + data[i4];
+                float tmp4 = data[i3] - data[i4];
+
+                float tmp10 = tmp0 + tmp3;
+                float tmp13 = tmp0 - tmp3;
+                float tmp11 = tmp1 + tmp2;
+                float tmp12 = tmp1 - tmp2;
+                data[i0] = tmp10 + tmp11;
+                data[i4] = tmp10 - tmp11;
+                float z1 = (tmp12 + tmp13) * 0.707106781f;
+                data[i2] = tmp13 + z1;
+                data[i6] = tmp13 - z1;
+
+                tmp10 = tmp4 + tmp5;
+                tmp11 = tmp5 + tmp6;
+                tmp12 = tmp6 + tmp7;
+                float z5 = (tmp10 - tmp12) * 0.382683433f;
+                float z2 = 0.541196100f * tmp10 + z5;
+                float z4 = 1.306562965f * tmp12 + z5;
+                float z3 = tmp11 * 0.707106781f;
+                float z11 = tmp7 + z3;
+                float z13 = tmp7 - z3;
+                data[i5] = z13 + z2;
+                data[i3] = z13 - z2;
+                data[i1] = z11 + z4;
+                data[i7] = z11 - z4;
+            }
+        }
+    }
+
+    private void writeBits(int bits, int count) throws IOException {
+        mBitBuffer = (mBitBuffer << count) | (bits & ((1 << count) - 1));
+        mBitCount += count;
+        while (mBitCount >= 8) {
+            int b = (mBitBuffer >> (mBitCount - 8)) & 0xff;
+            writeByte(b);
+            if (b == 0xff) {
+                // 数据中的0xFF后面补0，避免被当作标记
+                writeByte(0);
+            }
+            mBitCount -= 8;
+        }
+    }
+
+    private void writeBytes(int... bytes) throws IOException {
+        for (int b : bytes) {
+            writeByte(b);
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (mBufferLength == mBuffer.length) {
+            flushBuffer();
+        }
+        mBuffer[mBufferLength++] = (byte) b;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (mBufferLength > 0) {
+            mOut.write(mBuffer, 0, mBufferLength);
+            mBufferLength = 0;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.common.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 日志文件输出
+ * <p>
+ * 任意线程调用 {@link #offer} 只是把记录放入无锁队列，由单独的写线程格式化并通过
+ * FileChannel 写入磁盘，不阻塞 UI 线程。文件超过 maxFileSize 后滚动为
+ * name.1.log、name.2.log ...，最多保留 maxFiles 个文件。
+ * <p>
+ * <pre>
+ * LogFileSink sink = new LogFileSink(new File(context.getFilesDir(), "logs"), "app", 1024 * 1024, 5);
+ * sink.start();
+ * sink.installCrashHandler();
+ * LogUtil.setFileSink(sink);
+ * </pre>
+ */
+public class LogFileSink {
+
+    private static final String LOGTAG = "LogFileSink";
+    private static final String FILE_SUFFIX = ".log";
+    private static final int BYTE_BUFFER_SIZE = 16 * 1024;
+    private static final int CHAR_BUFFER_SIZE = 4 * 1024;
+    private static final int MAX_PENDING = 10000;
+    private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long CRASH_FLUSH_TIMEOUT_MS = 2000;
+    private static final char[] LEVEL_CHARS = {'V', 'D', 'I', 'W', 'E'};
+
+    private final File mDir;
+    private final String mBaseName;
+    private final long mMaxFileSize;
+    private final int mMaxFiles;
+
+    private final ConcurrentLinkedQueue<Record> mQueue = new ConcurrentLinkedQueue<Record>();
+    private final AtomicInteger mPending = new AtomicInteger();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicBoolean mParked = new AtomicBoolean();
+    // 写线程与崩溃时的同步刷盘互斥
+    private final ReentrantLock mWriteLock = new ReentrantLock();
+
+    private volatile boolean mRunning;
+    private Thread mWriter;
+
+    // 以下字段只在持有 mWriteLock 时访问
+    private FileChannel mChannel;
+    private long mFileSize;
+    private final ByteBuffer mBytes = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
+    private final CharBuffer mChars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+    private final StringBuilder mLine = new StringBuilder(256);
+    private final CharsetEncoder mEncoder = Charset.forName("UTF-8").newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat(
+            "MM-dd HH:mm:ss.SSS", Locale.US);
+    private final Date mDate = new Date();
+
+    /**
+     * @param dir         日志目录
+     * @param baseName    文件名前缀，当前文件为 baseName.log
+     * @param maxFileSize 单个文件的最大字节数，超过后滚动
+     * @param maxFiles    最多保留的文件个数(含当前文件)
+     */
+    public LogFileSink(File dir, String baseName, long maxFileSize, int maxFiles) {
+        mDir = dir;
+        mBaseName = baseName;
+        mMaxFileSize = maxFileSize;
+        mMaxFiles = maxFiles < 1 ? 1 : maxFiles;
+    }
+
+    public synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, LOGTAG);
+        mWriter.setDaemon(true);
+        mWriter.setPriority(Thread.MIN_PRIORITY);
+        mWriter.start();
+    }
+
+    /**
+     * 停止写线程，写完队列中剩余的记录后关闭文件
+     */
+    public synchronized void close() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        LockSupport.unpark(mWriter);
+        try {
+            mWriter.join(CRASH_FLUSH_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mWriter = null;
+    }
+
+    /**
+     * 放入一条日志，可在任意线程调用，不会阻塞
+     *
+     * @return 队列已满被丢弃时返回false
+     */
+    public boolean offer(int level, String tag, String msg, Throwable tr) {
+        if (!mRunning) {
+            return false;
+        }
+        if (mPending.incrementAndGet() > MAX_PENDING) {
+            mPending.decrementAndGet();
+            mDropped.incrementAndGet();
+            return false;
+        }
+        mQueue.offer(new Record(System.currentTimeMillis(), level, tag, msg, tr));
+        if (mParked.get() && mParked.compareAndSet(true, false)) {
+            LockSupport.unpark(mWriter);
+        }
+        return true;
+    }
+
+    /**
+     * 因队列已满而丢弃的日志条数
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * 在当前线程同步写出队列中的所有记录并刷到磁盘，用于进程即将退出的场景
+     */
+    public void flushNow() {
+        boolean locked = false;
+        try {
+            locked = mWriteLock.tryLock(CRASH_FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (locked) {
+                drain();
+                if (mChannel != null) {
+                    mChannel.force(false);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            android.util.Log.e(LOGTAG, "flushNow failed", e);
+        } finally {
+            if (locked) {
+                mWriteLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 安装未捕获异常处理：先记录异常并同步刷盘，再交给原来的处理器
+     * <p>
+     * 处理器一直保留，sink 关闭或被 {@link LogUtil#setFileSink} 替换后不再写入，只交给原来的处理器
+     */
+    public void installCrashHandler() {
+        final Thread.UncaughtExceptionHandler previous = Thread
+                .getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable ex) {
+                // 已关闭或被替换的 sink 再写会重新打开文件，并与新 sink 的滚动冲突
+                LogFileSink current = LogUtil.getFileSink();
+                if (mRunning && (current == null || current == LogFileSink.this)) {
+                    // 不受 MAX_PENDING 限制，崩溃信息必须落盘
+                    mPending.incrementAndGet();
+                    mQueue.offer(new Record(System.currentTimeMillis(), LogUtil.LEVEL_ERROR,
+                            LOGTAG, "FATAL EXCEPTION: " + thread.getName(), ex));
+                    flushNow();
+                }
+                if (previous != null) {
+                    previous.uncaughtException(thread, ex);
+                }
+            }
+        });
+    }
+
+    private void writeLoop() {
+        while (mRunning) {
+            mWriteLock.lock();
+            try {
+                drain();
+            } catch (IOException e) {
+                android.util.Log.e(LOGTAG, "write failed", e);
+                closeChannel();
+            } finally {
+                mWriteLock.unlock();
+            }
+            if (mQueue.isEmpty()) {
+                mParked.set(true);
+                // 置位后再检查一次，避免错过 park 之前入队的记录
+                if (mQueue.isEmpty() && mRunning) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                mParked.set(false);
+            }
+        }
+        flushNow();
+        mWriteLock.lock();
+        try {
+            closeChannel();
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    private void drain() throws IOException {
+        Record record = mQueue.poll();
+        while (record != null) {
+            mPending.decrementAndGet();
+            if (mChannel == null) {
+                openChannel();
+            }
+            format(record);
+            writeLine();
+            if (mFileSize + mBytes.position() >= mMaxFileSize) {
+                flushBytes();
+                rotate();
+            }
+            record = mQueue.poll();
+        }
+        if (mChannel != null) {
+            flushBytes();
+        }
+    }
+
+    private void format(Record record) {
+        StringBuilder line = mLine;
+        line.setLength(0);
+        mDate.setTime(record.time);
+        line.append(mDateFormat.format(mDate)).append(' ');
+        int level = record.level;
+        line.append(level >= 0 && level < LEVEL_CHARS.length ? LEVEL_CHARS[level] : '?');
+        line.append('/').append(record.tag).append(": ").append(record.msg).append('\n');
+        if (record.tr != null) {
+            line.append(android.util.Log.getStackTraceString(record.tr)).append('\n');
+        }
+    }
+
+    private void writeLine() throws IOException {
+        StringBuilder line = mLine;
+        char[] chars = mChars.array();
+        int len = line.length();
+        int start = 0;
+        while (start < len) {
+            int count = Math.min(chars.length, len - start);
+            // 不拆开代理对，每段都作为完整输入独立编码
+            if (start + count < len && Character.isHighSurrogate(line.charAt(start + count - 1))
+                    && count > 1) {
+                count--;
+            }
+            line.getChars(start, start + count, chars, 0);
+            mChars.clear();
+            mChars.limit(count);
+            start += count;
+            encode();
+        }
+    }
+
+    private void encode() throws IOException {
+        mEncoder.reset();
+        while (true) {
+            CoderResult result = mEncoder.encode(mChars, mBytes, true);
+            if (result.isOverflow()) {
+                flushBytes();
+            } else {
+                break;
+            }
+        }
+        while (mEncoder.flush(mBytes).isOverflow()) {
+            flushBytes();
+        }
+    }
+
+    private void flushBytes() throws IOException {
+        mBytes.flip();
+        while (mBytes.hasRemaining()) {
+            mFileSize += mChannel.write(mBytes);
+        }
+        mBytes.clear();
+    }
+
+    private void openChannel() throws IOException {
+        if (!mDir.exists()) {
+            mDir.mkdirs();
+        }
+        RandomAccessFile file = new RandomAccessFile(logFile(0), "rw");
+        mChannel = file.getChannel();
+        mFileSize = mChannel.size();
+        mChannel.position(mFileSize);
+    }
+
+    private void closeChannel() {
+        if (mChannel == null) {
+            return;
+        }
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            android.util.Log.e(LOGTAG, "close failed", e);
+        }
+        mChannel = null;
+        mBytes.clear();
+    }
+
+    private void rotate() {
+        closeChannel();
+        File oldest = logFile(mMaxFiles - 1);
+        if (oldest.exists()) {
+            oldest.delete();
+        }
+        for (int i = mMaxFiles - 2; i >= 0; i--) {
+            File file = logFile(i);
+            if (file.exists()) {
+                file.renameTo(logFile(i + 1));
+            }
+        }
+    }
+
+    private File logFile(int index) {
+        return new File(mDir, index == 0 ? mBaseName + FILE_SUFFIX
+                : mBaseName + "." + index + FILE_SUFFIX);
+    }
+
+    private static final class Record {
+        final long time;
+        final int level;
+        final String tag;
+        final String msg;
+        final Throwable tr;
+
+        Record(long time, int level, String tag, String msg, Throwable tr) {
+            this.time = time;
+            this.level = level;
+            this.tag = tag;
+            this.msg = msg;
+            this.tr = tr;
+        }
+    }
+}
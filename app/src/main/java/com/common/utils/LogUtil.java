@@ -33,6 +33,15 @@ import org.xiangbalao.jscallcamera.BuildConfig;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * 日志
+ * <p>
+ * (tag, format, args...) 形式在级别关闭时不做格式化。带异常时异常放在格式参数之前：
+ * <pre>
+ * LogUtil.w(LOGTAG, "close failed: %s", e, path);
+ * </pre>
+ * 注意 (tag, msg, tr) 不做格式化，w(LOGTAG, "failed %s", e) 会原样输出 "%s"。
+ */
 public class LogUtil {
 
     private static final int DUMP_LENGTH = 4000;
@@ -46,6 +55,18 @@ public class LogUtil {
     private static String mTag = "LogUtil";
     //是否激活日志工具
     private static boolean mEnabled = true;
+    //最低输出级别，低于此级别的日志直接丢弃，不做任何字符串拼接或格式化
+    private static int mLevel = LEVEL_VERBOSE;
+
+    private static int mDumpLimit = 0;
+    private static final ThreadLocal<char[]> sDumpBuffer = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[DUMP_LENGTH];
+        }
+    };
+
+    private static volatile LogFileSink mFileSink;
 
     private static String mRemoteUrl;
     private static String mPackageName;
@@ -77,149 +98,463 @@ public class LogUtil {
         }
     }
 
+    /**
+     * 延迟生成日志内容，只有在对应级别可输出时才会调用 {@link #get()}
+     */
+    public interface MessageSupplier {
+        String get();
+    }
+
+    public static void setLevel(int level) {
+        mLevel = level;
+    }
+
+    public static int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * 调用方在拼接开销较大或参数为基本类型(会被装箱)时，可先用此方法判断
+     */
+    public static boolean isLoggable(int level) {
+        return mEnabled && level >= mLevel;
+    }
+
     public static int v(String msg) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_VERBOSE)) {
+            toFile(LEVEL_VERBOSE, mTag, msg, null);
             return android.util.Log.v(mTag, msg);
         }
         return 0;
     }
 
     public static int v(String tag, String msg) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_VERBOSE)) {
+            toFile(LEVEL_VERBOSE, tag, msg, null);
             return android.util.Log.v(tag, msg);
         }
         return 0;
     }
 
     public static int v(String msg, Throwable tr) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_VERBOSE)) {
+            toFile(LEVEL_VERBOSE, mTag, msg, tr);
             return android.util.Log.v(mTag, msg, tr);
         }
         return 0;
     }
 
     public static int v(String tag, String msg, Throwable tr) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_VERBOSE)) {
+            toFile(LEVEL_VERBOSE, tag, msg, tr);
             return android.util.Log.v(tag, msg, tr);
         }
         return 0;
     }
 
+    public static int v(String tag, String format, Object arg1) {
+        if (isLoggable(LEVEL_VERBOSE)) {
+            String msg = String.format(format, arg1);
+            toFile(LEVEL_VERBOSE, tag, msg, null);
+            return android.util.Log.v(tag, msg);
+        }
+        return 0;
+    }
+
+    public static int v(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(LEVEL_VERBOSE)) {
+            String msg = String.format(format, arg1, arg2);
+            toFile(LEVEL_VERBOSE, tag, msg, null);
+            return android.util.Log.v(tag, msg);
+        }
+        return 0;
+    }
+
+    public static int v(String tag, String format, Object arg1, Object arg2, Object arg3) {
+        if (isLoggable(LEVEL_VERBOSE)) {
+            String msg = String.format(format, arg1, arg2, arg3);
+            toFile(LEVEL_VERBOSE, tag, msg, null);
+            return android.util.Log.v(tag, msg);
+        }
+        return 0;
+    }
+
+    public static int v(String tag, String format, Throwable tr, Object arg1) {
+        if (isLoggable(LEVEL_VERBOSE)) {
+            String msg = String.format(format, arg1);
+            toFile(LEVEL_VERBOSE, tag, msg, tr);
+            return android.util.Log.v(tag, msg, tr);
+        }
+        return 0;
+    }
+
+    public static int v(String tag, String format, Throwable tr, Object arg1, Object arg2) {
+        if (isLoggable(LEVEL_VERBOSE)) {
+            String msg = String.format(format, arg1, arg2);
+            toFile(LEVEL_VERBOSE, tag, msg, tr);
+            return android.util.Log.v(tag, msg, tr);
+        }
+        return 0;
+    }
+
+    public static int v(String tag, MessageSupplier supplier) {
+        if (isLoggable(LEVEL_VERBOSE)) {
+            String msg = supplier.get();
+            toFile(LEVEL_VERBOSE, tag, msg, null);
+            return android.util.Log.v(tag, msg);
+        }
+        return 0;
+    }
+
     public static int d(String msg) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_DEBUG)) {
+            toFile(LEVEL_DEBUG, mTag, msg, null);
             return android.util.Log.d(mTag, msg);
         }
         return 0;
     }
 
     public static int d(String tag, String msg) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_DEBUG)) {
+            toFile(LEVEL_DEBUG, tag, msg, null);
             return android.util.Log.d(tag, msg);
         }
         return 0;
     }
 
     public static int d(String msg, Throwable tr) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_DEBUG)) {
+            toFile(LEVEL_DEBUG, mTag, msg, tr);
             return android.util.Log.d(mTag, msg, tr);
         }
         return 0;
     }
 
     public static int d(String tag, String msg, Throwable tr) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_DEBUG)) {
+            toFile(LEVEL_DEBUG, tag, msg, tr);
             return android.util.Log.d(tag, msg, tr);
         }
         return 0;
     }
 
+    public static int d(String tag, String format, Object arg1) {
+        if (isLoggable(LEVEL_DEBUG)) {
+            String msg = String.format(format, arg1);
+            toFile(LEVEL_DEBUG, tag, msg, null);
+            return android.util.Log.d(tag, msg);
+        }
+        return 0;
+    }
+
+    public static int d(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(LEVEL_DEBUG)) {
+            String msg = String.format(format, arg1, arg2);
+            toFile(LEVEL_DEBUG, tag, msg, null);
+            return android.util.Log.d(tag, msg);
+        }
+        return 0;
+    }
+
+    public static int d(String tag, String format, Object arg1, Object arg2, Object arg3) {
+        if (isLoggable(LEVEL_DEBUG)) {
+            String msg = String.format(format, arg1, arg2, arg3);
+            toFile(LEVEL_DEBUG, tag, msg, null);
+            return android.util.Log.d(tag, msg);
+        }
+        return 0;
+    }
+
+    public static int d(String tag, String format, Throwable tr, Object arg1) {
+        if (isLoggable(LEVEL_DEBUG)) {
+            String msg = String.format(format, arg1);
+            toFile(LEVEL_DEBUG, tag, msg, tr);
+            return android.util.Log.d(tag, msg, tr);
+        }
+        return 0;
+    }
+
+    public static int d(String tag, String format, Throwable tr, Object arg1, Object arg2) {
+        if (isLoggable(LEVEL_DEBUG)) {
+            String msg = String.format(format, arg1, arg2);
+            toFile(LEVEL_DEBUG, tag, msg, tr);
+            return android.util.Log.d(tag, msg, tr);
+        }
+        return 0;
+    }
+
+    public static int d(String tag, MessageSupplier supplier) {
+        if (isLoggable(LEVEL_DEBUG)) {
+            String msg = supplier.get();
+            toFile(LEVEL_DEBUG, tag, msg, null);
+            return android.util.Log.d(tag, msg);
+        }
+        return 0;
+    }
+
     public static int i(String msg) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_INFO)) {
+            toFile(LEVEL_INFO, mTag, msg, null);
             return android.util.Log.i(mTag, msg);
         }
         return 0;
     }
 
     public static int i(String tag, String msg) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_INFO)) {
+            toFile(LEVEL_INFO, tag, msg, null);
             return android.util.Log.i(tag, msg);
         }
         return 0;
     }
 
     public static int i(String msg, Throwable tr) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_INFO)) {
+            toFile(LEVEL_INFO, mTag, msg, tr);
             return android.util.Log.i(mTag, msg, tr);
         }
         return 0;
     }
 
     public static int i(String tag, String msg, Throwable tr) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_INFO)) {
+            toFile(LEVEL_INFO, tag, msg, tr);
+            return android.util.Log.i(tag, msg, tr);
+        }
+        return 0;
+    }
+
+    public static int i(String tag, String format, Object arg1) {
+        if (isLoggable(LEVEL_INFO)) {
+            String msg = String.format(format, arg1);
+            toFile(LEVEL_INFO, tag, msg, null);
+            return android.util.Log.i(tag, msg);
+        }
+        return 0;
+    }
+
+    public static int i(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(LEVEL_INFO)) {
+            String msg = String.format(format, arg1, arg2);
+            toFile(LEVEL_INFO, tag, msg, null);
+            return android.util.Log.i(tag, msg);
+        }
+        return 0;
+    }
+
+    public static int i(String tag, String format, Object arg1, Object arg2, Object arg3) {
+        if (isLoggable(LEVEL_INFO)) {
+            String msg = String.format(format, arg1, arg2, arg3);
+            toFile(LEVEL_INFO, tag, msg, null);
+            return android.util.Log.i(tag, msg);
+        }
+        return 0;
+    }
+
+    public static int i(String tag, String format, Throwable tr, Object arg1) {
+        if (isLoggable(LEVEL_INFO)) {
+            String msg = String.format(format, arg1);
+            toFile(LEVEL_INFO, tag, msg, tr);
+            return android.util.Log.i(tag, msg, tr);
+        }
+        return 0;
+    }
+
+    public static int i(String tag, String format, Throwable tr, Object arg1, Object arg2) {
+        if (isLoggable(LEVEL_INFO)) {
+            String msg = String.format(format, arg1, arg2);
+            toFile(LEVEL_INFO, tag, msg, tr);
             return android.util.Log.i(tag, msg, tr);
         }
         return 0;
     }
 
+    public static int i(String tag, MessageSupplier supplier) {
+        if (isLoggable(LEVEL_INFO)) {
+            String msg = supplier.get();
+            toFile(LEVEL_INFO, tag, msg, null);
+            return android.util.Log.i(tag, msg);
+        }
+        return 0;
+    }
+
     public static int w(String msg) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_WARNING)) {
+            toFile(LEVEL_WARNING, mTag, msg, null);
             return android.util.Log.w(mTag, msg);
         }
         return 0;
     }
 
     public static int w(String tag, String msg) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_WARNING)) {
+            toFile(LEVEL_WARNING, tag, msg, null);
             return android.util.Log.w(tag, msg);
         }
         return 0;
     }
 
     public static int w(String msg, Throwable tr) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_WARNING)) {
+            toFile(LEVEL_WARNING, mTag, msg, tr);
             return android.util.Log.w(mTag, msg, tr);
         }
         return 0;
     }
 
     public static int w(String tag, String msg, Throwable tr) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_WARNING)) {
+            toFile(LEVEL_WARNING, tag, msg, tr);
             return android.util.Log.w(tag, msg, tr);
         }
         return 0;
     }
 
+    public static int w(String tag, String format, Object arg1) {
+        if (isLoggable(LEVEL_WARNING)) {
+            String msg = String.format(format, arg1);
+            toFile(LEVEL_WARNING, tag, msg, null);
+            return android.util.Log.w(tag, msg);
+        }
+        return 0;
+    }
+
+    public static int w(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(LEVEL_WARNING)) {
+            String msg = String.format(format, arg1, arg2);
+            toFile(LEVEL_WARNING, tag, msg, null);
+            return android.util.Log.w(tag, msg);
+        }
+        return 0;
+    }
+
+    public static int w(String tag, String format, Object arg1, Object arg2, Object arg3) {
+        if (isLoggable(LEVEL_WARNING)) {
+            String msg = String.format(format, arg1, arg2, arg3);
+            toFile(LEVEL_WARNING, tag, msg, null);
+            return android.util.Log.w(tag, msg);
+        }
+        return 0;
+    }
+
+    public static int w(String tag, String format, Throwable tr, Object arg1) {
+        if (isLoggable(LEVEL_WARNING)) {
+            String msg = String.format(format, arg1);
+            toFile(LEVEL_WARNING, tag, msg, tr);
+            return android.util.Log.w(tag, msg, tr);
+        }
+        return 0;
+    }
+
+    public static int w(String tag, String format, Throwable tr, Object arg1, Object arg2) {
+        if (isLoggable(LEVEL_WARNING)) {
+            String msg = String.format(format, arg1, arg2);
+            toFile(LEVEL_WARNING, tag, msg, tr);
+            return android.util.Log.w(tag, msg, tr);
+        }
+        return 0;
+    }
+
+    public static int w(String tag, MessageSupplier supplier) {
+        if (isLoggable(LEVEL_WARNING)) {
+            String msg = supplier.get();
+            toFile(LEVEL_WARNING, tag, msg, null);
+            return android.util.Log.w(tag, msg);
+        }
+        return 0;
+    }
+
     public static int e(String msg) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_ERROR)) {
+            toFile(LEVEL_ERROR, mTag, msg, null);
             return android.util.Log.e(mTag, msg);
         }
         return 0;
     }
 
     public static int e(String tag, String msg) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_ERROR)) {
+            toFile(LEVEL_ERROR, tag, msg, null);
             return android.util.Log.e(tag, msg);
         }
         return 0;
     }
 
     public static int e(String msg, Throwable tr) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_ERROR)) {
+            toFile(LEVEL_ERROR, mTag, msg, tr);
             return android.util.Log.e(mTag, msg, tr);
         }
         return 0;
     }
 
     public static int e(String tag, String msg, Throwable tr) {
-        if (mEnabled) {
+        if (isLoggable(LEVEL_ERROR)) {
+            toFile(LEVEL_ERROR, tag, msg, tr);
             return android.util.Log.e(tag, msg, tr);
         }
         return 0;
     }
 
+    public static int e(String tag, String format, Object arg1) {
+        if (isLoggable(LEVEL_ERROR)) {
+            String msg = String.format(format, arg1);
+            toFile(LEVEL_ERROR, tag, msg, null);
+            return android.util.Log.e(tag, msg);
+        }
+        return 0;
+    }
+
+    public static int e(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(LEVEL_ERROR)) {
+            String msg = String.format(format, arg1, arg2);
+            toFile(LEVEL_ERROR, tag, msg, null);
+            return android.util.Log.e(tag, msg);
+        }
+        return 0;
+    }
+
+    public static int e(String tag, String format, Object arg1, Object arg2, Object arg3) {
+        if (isLoggable(LEVEL_ERROR)) {
+            String msg = String.format(format, arg1, arg2, arg3);
+            toFile(LEVEL_ERROR, tag, msg, null);
+            return android.util.Log.e(tag, msg);
+        }
+        return 0;
+    }
+
+    public static int e(String tag, String format, Throwable tr, Object arg1) {
+        if (isLoggable(LEVEL_ERROR)) {
+            String msg = String.format(format, arg1);
+            toFile(LEVEL_ERROR, tag, msg, tr);
+            return android.util.Log.e(tag, msg, tr);
+        }
+        return 0;
+    }
+
+    public static int e(String tag, String format, Throwable tr, Object arg1, Object arg2) {
+        if (isLoggable(LEVEL_ERROR)) {
+            String msg = String.format(format, arg1, arg2);
+            toFile(LEVEL_ERROR, tag, msg, tr);
+            return android.util.Log.e(tag, msg, tr);
+        }
+        return 0;
+    }
+
+    public static int e(String tag, MessageSupplier supplier) {
+        if (isLoggable(LEVEL_ERROR)) {
+            String msg = supplier.get();
+            toFile(LEVEL_ERROR, tag, msg, null);
+            return android.util.Log.e(tag, msg);
+        }
+        return 0;
+    }
+
     public static int t(String msg, Object... args) {
-        if (mEnabled) {
-            return android.util.Log.v("test", String.format(msg, args));
+        if (isLoggable(LEVEL_VERBOSE)) {
+            String text = String.format(msg, args);
+            toFile(LEVEL_VERBOSE, "test", text, null);
+            return android.util.Log.v("test", text);
         }
         return 0;
     }
@@ -251,46 +586,126 @@ public class LogUtil {
         }).start();
     }
 
-    public static void dump(String longMsg) {
-        dump(mTag, longMsg, LEVEL_INFO);
+    /**
+     * 设置 dump 单条消息的最大输出字符数，超过时只输出首尾部分，中间以省略提示代替。
+     *
+     * @param maxChars 小于等于0表示不限制
+     */
+    public static void setDumpLimit(int maxChars) {
+        mDumpLimit = maxChars;
+    }
+
+    public static int dump(CharSequence longMsg) {
+        return dump(mTag, longMsg, LEVEL_INFO);
     }
 
-    public static void dump(String longMsg, int level) {
-        dump(mTag, longMsg, level);
+    public static int dump(CharSequence longMsg, int level) {
+        return dump(mTag, longMsg, level);
     }
 
-    public static void dump(String tag, String longMsg) {
-        dump(tag, longMsg, LEVEL_INFO);
+    public static int dump(String tag, CharSequence longMsg) {
+        return dump(tag, longMsg, LEVEL_INFO);
     }
 
-    public static void dump(String tag, String longMsg, int level) {
+    /**
+     * 按 {@link #DUMP_LENGTH} 分段输出长消息，如 Base64 图片。
+     *
+     * @return 实际输出的字符数，未输出时返回0
+     */
+    public static int dump(String tag, CharSequence longMsg, int level) {
+        if (longMsg == null || !isLoggable(level)) {
+            return 0;
+        }
         int len = longMsg.length();
-        String curr;
-        for (int a = 0; a < len; a += DUMP_LENGTH) {
-            if (a + DUMP_LENGTH < len) {
-                curr = longMsg.substring(a, a + DUMP_LENGTH);
-            } else {
-                curr = longMsg.substring(a);
+        if (len <= DUMP_LENGTH) {
+            dumpChunk(level, tag, longMsg.toString());
+            return len;
+        }
+
+        int headEnd = len;
+        int tailStart = len;
+        int limit = mDumpLimit;
+        if (limit > 0 && len > limit) {
+            headEnd = limit / 2;
+            tailStart = len - (limit - headEnd);
+        }
+
+        int logged = dumpRange(level, tag, longMsg, 0, headEnd);
+        if (tailStart < len) {
+            dumpChunk(level, tag, "... " + (tailStart - headEnd) + " chars omitted ...");
+            logged += dumpRange(level, tag, longMsg, tailStart, len);
+        }
+        return logged;
+    }
+
+    private static int dumpRange(int level, String tag, CharSequence msg, int start, int end) {
+        if (msg instanceof String) {
+            // substring 本身就是一次拷贝，再经缓冲区中转只会多拷贝一次
+            String str = (String) msg;
+            for (int a = start; a < end; a += DUMP_LENGTH) {
+                dumpChunk(level, tag, str.substring(a, Math.min(a + DUMP_LENGTH, end)));
+            }
+        } else {
+            // StringBuilder 等不再整体 toString，只按段拷贝到复用的缓冲区
+            char[] buffer = sDumpBuffer.get();
+            for (int a = start; a < end; a += DUMP_LENGTH) {
+                int count = Math.min(DUMP_LENGTH, end - a);
+                getChars(msg, a, a + count, buffer);
+                dumpChunk(level, tag, new String(buffer, 0, count));
             }
+        }
+        return end - start;
+    }
 
-            switch (level) {
-                case LEVEL_ERROR:
-                    LogUtil.e(tag, curr);
-                    break;
-                case LEVEL_WARNING:
-                    LogUtil.w(tag, curr);
-                    break;
-                case LEVEL_INFO:
-                    LogUtil.i(tag, curr);
-                    break;
-                case LEVEL_DEBUG:
-                    LogUtil.d(tag, curr);
-                    break;
-                case LEVEL_VERBOSE:
-                default:
-                    LogUtil.v(tag, curr);
-                    break;
+    private static void dumpChunk(int level, String tag, String chunk) {
+        toFile(level, tag, chunk, null);
+        android.util.Log.println(toPriority(level), tag, chunk);
+    }
+
+    private static void getChars(CharSequence src, int start, int end, char[] dst) {
+        if (src instanceof StringBuilder) {
+            ((StringBuilder) src).getChars(start, end, dst, 0);
+        } else if (src instanceof StringBuffer) {
+            ((StringBuffer) src).getChars(start, end, dst, 0);
+        } else {
+            for (int i = start; i < end; i++) {
+                dst[i - start] = src.charAt(i);
             }
         }
     }
+
+    /**
+     * 设置日志文件输出，传null关闭文件日志。文件写入在 {@link LogFileSink} 的写线程完成，
+     * 这里只是入队。
+     */
+    public static void setFileSink(LogFileSink sink) {
+        mFileSink = sink;
+    }
+
+    public static LogFileSink getFileSink() {
+        return mFileSink;
+    }
+
+    private static void toFile(int level, String tag, String msg, Throwable tr) {
+        LogFileSink sink = mFileSink;
+        if (sink != null) {
+            sink.offer(level, tag, msg, tr);
+        }
+    }
+
+    private static int toPriority(int level) {
+        switch (level) {
+            case LEVEL_ERROR:
+                return android.util.Log.ERROR;
+            case LEVEL_WARNING:
+                return android.util.Log.WARN;
+            case LEVEL_INFO:
+                return android.util.Log.INFO;
+            case LEVEL_DEBUG:
+                return android.util.Log.DEBUG;
+            case LEVEL_VERBOSE:
+            default:
+                return android.util.Log.VERBOSE;
+        }
+    }
 }
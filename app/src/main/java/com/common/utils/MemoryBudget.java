@@ -0,0 +1,324 @@
+package com.common.utils;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Debug;
+import android.os.SystemClock;
+
+/**
+ * 内存预算
+ * <p>
+ * 分配大块内存前先检查剩余空间，放不下时由调用者降低分辨率、换用更省内存的格式或改为分块处理，
+ * 而不是等 VM 做完一次完整 GC 后抛出 OutOfMemoryError。
+ * <p>
+ * 像素数组总在 Java 堆中；Bitmap 像素在 API 11 以下是计入堆上限的 native 内存，
+ * API 26 以上在 native 堆中只受系统剩余内存限制。单次分配的“宽裕”预算为剩余空间的 1/2，
+ * 内存偏紧时 1/4，严重不足时 1/8；超过剩余空间的分配直接拒绝。
+ * <p>
+ * 内存紧张程度由 {@link #onTrimMemory(int)} 更新，同时收缩 {@link BitmapPool} 和各缓存；
+ * 一分钟内没有新的回调时恢复正常。降级次数计入 MemoryBudget.degrade.* 统计。
+ * <p>
+ * <pre>
+ * // Activity 中
+ * MemoryBudget.init(this);
+ * public void onTrimMemory(int level) {
+ *     super.onTrimMemory(level);
+ *     MemoryBudget.onTrimMemory(level);
+ * }
+ * </pre>
+ */
+public class MemoryBudget {
+
+    private static final String LOGTAG = "MemoryBudget";
+
+    /**
+     * 内存充足
+     */
+    public static final int PRESSURE_NONE = 0;
+    /**
+     * 内存偏紧
+     */
+    public static final int PRESSURE_MODERATE = 1;
+    /**
+     * 内存严重不足
+     */
+    public static final int PRESSURE_CRITICAL = 2;
+
+    /**
+     * 最近一次回调后经过这么久恢复 {@link #PRESSURE_NONE}
+     */
+    private static final long PRESSURE_DECAY_MILLIS = 60 * 1000;
+    /**
+     * 系统内存信息的刷新间隔，getMemoryInfo 是跨进程调用
+     */
+    private static final long MEMORY_INFO_INTERVAL_MILLIS = 1000;
+    /**
+     * Android 8.0 起 Bitmap 像素分配在 native 堆
+     */
+    private static final int SDK_BITMAP_IN_NATIVE_HEAP = 26;
+
+    private static final MetricsRegistry.Counter DEGRADE_SIZE_COUNTER = MetricsRegistry
+            .counter("MemoryBudget.degrade.size");
+    private static final MetricsRegistry.Counter DEGRADE_CONFIG_COUNTER = MetricsRegistry
+            .counter("MemoryBudget.degrade.config");
+    private static final MetricsRegistry.Counter DEGRADE_TILE_COUNTER = MetricsRegistry
+            .counter("MemoryBudget.degrade.tile");
+    private static final MetricsRegistry.Counter REJECT_COUNTER = MetricsRegistry
+            .counter("MemoryBudget.reject");
+    private static final MetricsRegistry.Counter TRIM_COUNTER = MetricsRegistry
+            .counter("MemoryBudget.trim");
+
+    private static volatile int sPressure = PRESSURE_NONE;
+    private static volatile long sPressureTime;
+
+    private static ActivityManager sActivityManager;
+    private static final ActivityManager.MemoryInfo sMemoryInfo =
+            new ActivityManager.MemoryInfo();
+    private static long sMemoryInfoTime;
+
+    /**
+     * 取得系统内存信息，用于估算 native 剩余空间；不调用时只按 Java 堆估算
+     */
+    public static synchronized void init(Context context) {
+        if (sActivityManager == null && context != null) {
+            sActivityManager = (ActivityManager) context.getApplicationContext()
+                    .getSystemService(Context.ACTIVITY_SERVICE);
+        }
+    }
+
+    /**
+     * 手动设置紧张程度，同样在一分钟后恢复
+     */
+    public static void setPressure(int pressure) {
+        sPressureTime = SystemClock.elapsedRealtime();
+        sPressure = Math.max(PRESSURE_NONE, Math.min(PRESSURE_CRITICAL, pressure));
+    }
+
+    public static int getPressure() {
+        int pressure = sPressure;
+        if (pressure != PRESSURE_NONE
+                && SystemClock.elapsedRealtime() - sPressureTime > PRESSURE_DECAY_MILLIS) {
+            sPressure = pressure = PRESSURE_NONE;
+        }
+        if (pressure == PRESSURE_NONE && isSystemLowMemory()) {
+            return PRESSURE_MODERATE;
+        }
+        return pressure;
+    }
+
+    /**
+     * @return Java 堆还能分配的字节数；API 11 以下扣除 Bitmap 占用的 native 内存
+     */
+    public static long heapHeadroom() {
+        Runtime runtime = Runtime.getRuntime();
+        long headroom = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            headroom -= Debug.getNativeHeapAllocatedSize();
+        }
+        return Math.max(0, headroom);
+    }
+
+    /**
+     * @return 还能分配给 Bitmap 像素的字节数
+     */
+    public static long bitmapHeadroom() {
+        if (Build.VERSION.SDK_INT >= SDK_BITMAP_IN_NATIVE_HEAP) {
+            return systemHeadroom();
+        }
+        return heapHeadroom();
+    }
+
+    /**
+     * 系统在开始杀进程前还剩的内存，未调用 {@link #init} 时视为不受限
+     */
+    private static synchronized long systemHeadroom() {
+        if (!refreshMemoryInfo()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, sMemoryInfo.availMem - sMemoryInfo.threshold);
+    }
+
+    private static synchronized boolean isSystemLowMemory() {
+        return refreshMemoryInfo() && sMemoryInfo.lowMemory;
+    }
+
+    private static boolean refreshMemoryInfo() {
+        if (sActivityManager == null) {
+            return false;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (sMemoryInfoTime == 0 || now - sMemoryInfoTime > MEMORY_INFO_INTERVAL_MILLIS) {
+            sActivityManager.getMemoryInfo(sMemoryInfo);
+            sMemoryInfoTime = now;
+        }
+        return true;
+    }
+
+    /**
+     * 单次分配的宽裕预算
+     */
+    private static long budget(long headroom) {
+        switch (getPressure()) {
+            case PRESSURE_CRITICAL:
+                return headroom >> 3;
+            case PRESSURE_MODERATE:
+                return headroom >> 2;
+            default:
+                return headroom >> 1;
+        }
+    }
+
+    /**
+     * @return 在 Java 堆上分配 bytes 字节是否宽裕，用于决定是否整块处理
+     */
+    public static boolean fitsHeap(long bytes) {
+        return bytes <= budget(heapHeadroom());
+    }
+
+    /**
+     * @return 创建这样一张 Bitmap 是否宽裕，用于决定分辨率和格式
+     */
+    public static boolean fitsBitmap(int width, int height, Config config) {
+        return sizeOf(width, height, config) <= budget(bitmapHeadroom());
+    }
+
+    /**
+     * 分配前的最后检查，超出剩余空间时计入拒绝次数
+     *
+     * @return 在 Java 堆上分配 bytes 字节是否可能成功
+     */
+    public static boolean canAllocateHeap(long bytes) {
+        if (bytes <= heapHeadroom()) {
+            return true;
+        }
+        REJECT_COUNTER.inc();
+        LogUtil.w(LOGTAG, "heap allocation rejected, %d bytes", bytes);
+        return false;
+    }
+
+    /**
+     * 分配前的最后检查，超出剩余空间时计入拒绝次数
+     *
+     * @return 创建这样一张 Bitmap 是否可能成功
+     */
+    public static boolean canAllocateBitmap(int width, int height, Config config) {
+        long bytes = sizeOf(width, height, config);
+        if (bytes <= bitmapHeadroom()) {
+            return true;
+        }
+        REJECT_COUNTER.inc();
+        LogUtil.w(LOGTAG, "bitmap allocation rejected, %dx%d", width, height);
+        return false;
+    }
+
+    /**
+     * 根据已解析的 outWidth、outHeight 增大 inSampleSize，直到解出的 Bitmap 在预算内
+     *
+     * @return 调整后的 inSampleSize
+     */
+    public static int fitSampleSize(BitmapFactory.Options options) {
+        return fitSampleSize(options, options.outWidth, options.outHeight);
+    }
+
+    /**
+     * 同 {@link #fitSampleSize(BitmapFactory.Options)}，按 width * height 的解码区域计算，
+     * 用于区域解码
+     *
+     * @return 调整后的 inSampleSize
+     */
+    public static int fitSampleSize(BitmapFactory.Options options, int width, int height) {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        if (width <= 0 || height <= 0) {
+            return sampleSize;
+        }
+        Config config = options.inPreferredConfig != null ? options.inPreferredConfig
+                : Config.ARGB_8888;
+        long budget = budget(bitmapHeadroom());
+        int requested = sampleSize;
+        while (sizeOf((width + sampleSize - 1) / sampleSize,
+                (height + sampleSize - 1) / sampleSize, config) > budget
+                && Math.max(width, height) / sampleSize > 1) {
+            sampleSize *= 2;
+        }
+        if (sampleSize != requested) {
+            DEGRADE_SIZE_COUNTER.inc();
+            LogUtil.w(LOGTAG, "sample size %d -> %d", requested, sampleSize);
+            options.inSampleSize = sampleSize;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 由调用者换用更省内存的格式时记录
+     */
+    static void recordConfigDegrade() {
+        DEGRADE_CONFIG_COUNTER.inc();
+    }
+
+    /**
+     * 由调用者改为分块处理时记录
+     */
+    static void recordTileDegrade() {
+        DEGRADE_TILE_COUNTER.inc();
+    }
+
+    /**
+     * 在 Activity 或 Application 的 onTrimMemory 中调用
+     */
+    public static void onTrimMemory(int level) {
+        TRIM_COUNTER.inc();
+        LogUtil.i(LOGTAG, "onTrimMemory %d", level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // 进程即将被杀或前台也快没有内存了，全部释放
+            setPressure(PRESSURE_CRITICAL);
+            clearCaches();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // 界面不可见，池中的 Bitmap 短时间内用不到
+            setPressure(PRESSURE_MODERATE);
+            clearCaches();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            setPressure(PRESSURE_MODERATE);
+            BitmapPool.trimToSize(BitmapPool.getMaxSize() / 4);
+            VignetteRenderer.clearCache();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            setPressure(PRESSURE_MODERATE);
+            BitmapPool.trimToSize(BitmapPool.getMaxSize() / 2);
+        }
+    }
+
+    /**
+     * 在 onLowMemory 中调用，API 14 以下没有 onTrimMemory
+     */
+    public static void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    private static void clearCaches() {
+        BitmapPool.clear();
+        VignetteRenderer.clearCache();
+        ExifOrientation.clearCache();
+    }
+
+    public static int bytesPerPixel(Config config) {
+        if (config == Config.ALPHA_8) {
+            return 1;
+        }
+        if (config == Config.RGB_565) {
+            return 2;
+        }
+        if (config == Config.ARGB_4444 && Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            // API 19 起按 ARGB_8888 创建
+            return 2;
+        }
+        return 4;
+    }
+
+    public static long sizeOf(int width, int height, Config config) {
+        return (long) width * height * bytesPerPixel(config);
+    }
+}
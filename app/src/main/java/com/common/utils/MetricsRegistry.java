@@ -0,0 +1,385 @@
+package com.common.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 轻量级性能统计：计数器、直方图和计时器
+ * <p>
+ * 记录只做原子加法，不加锁，可以放在图片处理和js调用等热路径上。
+ * 计时器按纳秒记录，快照中以毫秒输出 p50/p99/max。
+ * <p>
+ * <pre>
+ * private static final MetricsRegistry.Timer DECODE = MetricsRegistry.timer("decode");
+ *
+ * long start = MetricsRegistry.start();
+ * try {
+ *     ...
+ * } finally {
+ *     DECODE.stop(start);
+ * }
+ * </pre>
+ */
+public class MetricsRegistry {
+
+    private static final String LOGTAG = "Metrics";
+
+    private static final ConcurrentMap<String, Metric> sMetrics = new ConcurrentHashMap<String, Metric>();
+    private static volatile boolean sEnabled = true;
+    private static ScheduledExecutorService sScheduler;
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * 计时起点，关闭统计时返回0，{@link Timer#stop(long)} 会忽略该值
+     */
+    public static long start() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    public static Counter counter(String name) {
+        Metric metric = sMetrics.get(name);
+        if (metric == null) {
+            Metric created = new Counter(name);
+            metric = sMetrics.putIfAbsent(name, created);
+            if (metric == null) {
+                metric = created;
+            }
+        }
+        if (metric instanceof Counter) {
+            return (Counter) metric;
+        }
+        return detached(name, metric, new Counter(name));
+    }
+
+    public static Histogram histogram(String name) {
+        Metric metric = sMetrics.get(name);
+        if (metric == null) {
+            Metric created = new Histogram(name);
+            metric = sMetrics.putIfAbsent(name, created);
+            if (metric == null) {
+                metric = created;
+            }
+        }
+        if (metric instanceof Histogram) {
+            return (Histogram) metric;
+        }
+        return detached(name, metric, new Histogram(name));
+    }
+
+    public static Timer timer(String name) {
+        Metric metric = sMetrics.get(name);
+        if (metric == null) {
+            Metric created = new Timer(name);
+            metric = sMetrics.putIfAbsent(name, created);
+            if (metric == null) {
+                metric = created;
+            }
+        }
+        if (metric instanceof Timer) {
+            return (Timer) metric;
+        }
+        return detached(name, metric, new Timer(name));
+    }
+
+    /**
+     * 同名指标已注册为其他类型时返回不登记的新指标，记录照常但不出现在快照中；统计不能让调用方崩溃
+     */
+    private static <T extends Metric> T detached(String name, Metric existing, T metric) {
+        LogUtil.w(LOGTAG, "metric %s already registered as %s", name,
+                existing.getClass().getSimpleName());
+        return metric;
+    }
+
+    /**
+     * 清空所有统计值，已创建的指标对象仍然可用
+     */
+    public static void reset() {
+        for (Metric metric : sMetrics.values()) {
+            metric.reset();
+        }
+    }
+
+    /**
+     * 所有指标的文本快照，每个指标一行，按名称排序
+     */
+    public static String snapshot() {
+        List<String> names = new ArrayList<String>(sMetrics.keySet());
+        Collections.sort(names);
+        StringBuilder sb = new StringBuilder(names.size() * 96);
+        for (String name : names) {
+            sMetrics.get(name).appendTo(sb);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 通过 LogUtil 输出快照
+     */
+    public static void dump() {
+        if (LogUtil.isLoggable(LogUtil.LEVEL_INFO)) {
+            LogUtil.dump(LOGTAG, snapshot(), LogUtil.LEVEL_INFO);
+        }
+    }
+
+    /**
+     * 把快照追加写入文件
+     */
+    public static boolean exportTo(String filePath) {
+        return FileUtils.writeFile(filePath, snapshot(), true);
+    }
+
+    /**
+     * 定时输出快照
+     *
+     * @param periodMillis 间隔
+     * @param exportPath   不为空时同时追加写入该文件
+     */
+    public static synchronized void startPeriodicDump(long periodMillis, final String exportPath) {
+        stopPeriodicDump();
+        sScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, LOGTAG);
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        sScheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dump();
+                    if (!StringUtils.isEmpty(exportPath)) {
+                        exportTo(exportPath);
+                    }
+                } catch (RuntimeException e) {
+                    LogUtil.e(LOGTAG, "periodic dump failed", e);
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized void stopPeriodicDump() {
+        if (sScheduler != null) {
+            sScheduler.shutdownNow();
+            sScheduler = null;
+        }
+    }
+
+    public static abstract class Metric {
+        final String mName;
+
+        Metric(String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        abstract void reset();
+
+        abstract void appendTo(StringBuilder sb);
+    }
+
+    public static class Counter extends Metric {
+        private final AtomicLong mCount = new AtomicLong();
+
+        Counter(String name) {
+            super(name);
+        }
+
+        public void inc() {
+            if (sEnabled) {
+                mCount.incrementAndGet();
+            }
+        }
+
+        public void add(long delta) {
+            if (sEnabled) {
+                mCount.addAndGet(delta);
+            }
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        @Override
+        void reset() {
+            mCount.set(0);
+        }
+
+        @Override
+        void appendTo(StringBuilder sb) {
+            sb.append(mName).append(" count=").append(mCount.get());
+        }
+    }
+
+    /**
+     * 对数分桶直方图：小于16的值精确记录，之后每个2的幂区间再分8个子桶，
+     * 相对误差不超过12.5%，只用固定大小的 AtomicLongArray。
+     */
+    public static class Histogram extends Metric {
+        private static final int LINEAR = 16;
+        private static final int SUB_BITS = 3;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int BUCKETS = LINEAR + (63 - 4) * SUB_COUNT;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        Histogram(String name) {
+            super(name);
+        }
+
+        public void record(long value) {
+            if (!sEnabled) {
+                return;
+            }
+            if (value < 0) {
+                value = 0;
+            }
+            mBuckets.incrementAndGet(bucketOf(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value)) {
+                max = mMax.get();
+            }
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getMax() {
+            return mMax.get();
+        }
+
+        public long getMean() {
+            long count = mCount.get();
+            return count == 0 ? 0 : mSum.get() / count;
+        }
+
+        /**
+         * @param quantile 0~1，如0.99
+         * @return 近似值(所在桶的上界)
+         */
+        public long getQuantile(double quantile) {
+            long count = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = mBuckets.get(i);
+                count += snapshot[i];
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            if (rank < 1) {
+                rank = 1;
+            }
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+
+        static int bucketOf(long value) {
+            if (value < LINEAR) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+            return LINEAR + (exponent - 4) * SUB_COUNT + sub;
+        }
+
+        static long upperBoundOf(int bucket) {
+            if (bucket < LINEAR) {
+                return bucket;
+            }
+            int exponent = (bucket - LINEAR) / SUB_COUNT + 4;
+            int sub = (bucket - LINEAR) % SUB_COUNT;
+            long base = 1L << exponent;
+            long step = 1L << (exponent - SUB_BITS);
+            return base + (sub + 1) * step - 1;
+        }
+
+        @Override
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+
+        @Override
+        void appendTo(StringBuilder sb) {
+            sb.append(mName).append(" count=").append(mCount.get())
+                    .append(" mean=").append(getMean())
+                    .append(" p50=").append(getQuantile(0.5))
+                    .append(" p99=").append(getQuantile(0.99))
+                    .append(" max=").append(mMax.get());
+        }
+    }
+
+    /**
+     * 以纳秒记录耗时的直方图
+     */
+    public static class Timer extends Histogram {
+
+        Timer(String name) {
+            super(name);
+        }
+
+        /**
+         * @param start {@link MetricsRegistry#start()} 的返回值
+         */
+        public void stop(long start) {
+            if (start != 0) {
+                record(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        void appendTo(StringBuilder sb) {
+            sb.append(mName).append(" count=").append(getCount())
+                    .append(" mean=").append(toMillis(getMean()))
+                    .append("ms p50=").append(toMillis(getQuantile(0.5)))
+                    .append("ms p99=").append(toMillis(getQuantile(0.99)))
+                    .append("ms max=").append(toMillis(getMax())).append("ms");
+        }
+
+        private static String toMillis(long nanos) {
+            return String.format(Locale.US, "%.2f", nanos / 1000000.0);
+        }
+    }
+}
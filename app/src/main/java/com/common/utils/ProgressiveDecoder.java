@@ -0,0 +1,209 @@
+package com.common.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * 由小到大逐级解码同一张图片
+ * <p>
+ * 先用很大的 inSampleSize 解出预览图立即交付，再在后台依次解出更大的版本，每完成一级交付一级。
+ * 每一级都按 EXIF 方向摆正。
+ * 每次 {@link #start} 都会使之前的任务过期：过期任务在下一级解码前停止，正在进行的解码被
+ * requestCancelDecode 中断，已解出但未交付的图片直接回收，不会交付旧照片。
+ * <p>
+ * <pre>
+ * mDecoder.start(path, new int[]{94, 512, ProgressiveDecoder.FULL_SIZE}, callback);
+ * </pre>
+ *
+ * @param <T> 在工作线程中由图片加工出的交付内容，如 base64 字符串
+ */
+public class ProgressiveDecoder<T> {
+
+    private static final String LOGTAG = "ProgressiveDecoder";
+
+    /**
+     * 原图大小
+     */
+    public static final int FULL_SIZE = 0;
+
+    private static final MetricsRegistry.Timer RENDITION_TIMER = MetricsRegistry
+            .timer("ProgressiveDecoder.rendition");
+
+    public interface Callback<T> {
+        /**
+         * 在工作线程中调用，把解出的图片加工成交付内容
+         *
+         * @param index  第几级，从0开始
+         * @param size   这一级的长边上限，{@link #FULL_SIZE} 表示原图
+         * @param bitmap 长边不超过 size 的图片
+         * @return 交付内容，返回null时跳过这一级
+         */
+        T prepare(int index, int size, Bitmap bitmap);
+
+        /**
+         * 在主线程中调用，只有仍是最新的任务才会交付
+         */
+        void deliver(int index, int size, Bitmap bitmap, T prepared);
+    }
+
+    /**
+     * 所有实例共用一个线程，Activity 重建时不会留下空闲线程；作废的任务在下一级前就会退出
+     */
+    private static ExecutorService sExecutor;
+
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private volatile DecoderService.Request mDecoding;
+
+    /**
+     * 开始逐级解码，之前未完成的任务全部作废
+     *
+     * @param path     图片文件
+     * @param sizes    每一级的长边上限，由小到大
+     * @param callback
+     * @return 这次任务的代号
+     */
+    public int start(final String path, final int[] sizes, final Callback<T> callback) {
+        final int generation = cancel();
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                decode(generation, path, sizes, callback);
+            }
+        });
+        return generation;
+    }
+
+    /**
+     * 作废当前任务
+     *
+     * @return 新的代号
+     */
+    public int cancel() {
+        int generation = mGeneration.incrementAndGet();
+        DecoderService.Request decoding = mDecoding;
+        if (decoding != null) {
+            decoding.cancel();
+        }
+        return generation;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, LOGTAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+    public boolean isCurrent(int generation) {
+        return mGeneration.get() == generation;
+    }
+
+    private void decode(int generation, String path, int[] sizes, Callback<T> callback) {
+        if (!isCurrent(generation) || !FileUtils.isFileExist(path)) {
+            return;
+        }
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            LogUtil.w(LOGTAG, "cannot decode %s", path);
+            return;
+        }
+        int longSide = Math.max(bounds.outWidth, bounds.outHeight);
+        int orientation = ExifOrientation.getOrientation(path);
+
+        for (int i = 0; i < sizes.length && isCurrent(generation); i++) {
+            long start = MetricsRegistry.start();
+            Bitmap bitmap = null;
+            T prepared;
+            try {
+                bitmap = decodeRendition(path, longSide, sizes[i], orientation, generation);
+                if (bitmap == null) {
+                    return;
+                }
+                prepared = isCurrent(generation) ? callback.prepare(i, sizes[i], bitmap) : null;
+            } catch (RuntimeException e) {
+                // 回调出错只跳过这一级，不让异常结束工作线程
+                LogUtil.e(LOGTAG, "prepare failed, size %d", e, sizes[i]);
+                prepared = null;
+            } catch (OutOfMemoryError e) {
+                LogUtil.e(LOGTAG, "decode:OutOfMemoryError, size %d", sizes[i]);
+                if (bitmap != null) {
+                    bitmap.recycle();
+                }
+                return;
+            } finally {
+                RENDITION_TIMER.stop(start);
+            }
+            if (prepared == null || !isCurrent(generation)) {
+                if (bitmap != null) {
+                    bitmap.recycle();
+                }
+                continue;
+            }
+            post(generation, i, sizes[i], bitmap, prepared, callback);
+        }
+    }
+
+    /**
+     * 按长边上限取2的幂次采样率解码，剩余的缩放和 EXIF 方向合成一次变换
+     */
+    private Bitmap decodeRendition(String path, int longSide, int size, int orientation,
+                                   int generation) {
+        DecoderService.Request request = DecoderService.newRequest();
+        BitmapFactory.Options options = request.getOptions();
+        options.inSampleSize = 1;
+        if (size != FULL_SIZE) {
+            while (longSide / (options.inSampleSize * 2) >= size) {
+                options.inSampleSize *= 2;
+            }
+        }
+        mDecoding = request;
+        Bitmap bitmap;
+        try {
+            // start 与赋值 mDecoding 之间作废的任务在这里发现
+            if (!isCurrent(generation)) {
+                return null;
+            }
+            bitmap = DecoderService.decodeFile(path, request);
+        } finally {
+            mDecoding = null;
+        }
+        if (bitmap == null) {
+            return null;
+        }
+        int decodedLongSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        float scale = size == FULL_SIZE || decodedLongSide <= size ? 1f
+                : (float) size / decodedLongSide;
+        return ExifOrientation.transform(bitmap, orientation, scale);
+    }
+
+    private void post(final int generation, final int index, final int size,
+                      final Bitmap bitmap, final T prepared, final Callback<T> callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (isCurrent(generation)) {
+                    callback.deliver(index, size, bitmap, prepared);
+                } else {
+                    bitmap.recycle();
+                }
+            }
+        });
+    }
+}
@@ -1,14 +1,13 @@
 package com.common.utils;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.Writer;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.http.protocol.HTTP;
-
 /**
  * String Utils
  *
@@ -16,6 +15,37 @@ import org.apache.http.protocol.HTTP;
  */
 public class StringUtils {
 
+    private static final Pattern HREF_PATTERN = Pattern.compile(
+            ".*<[\\s]*a[\\s]*.*>(.+?)<[\\s]*/a[\\s]*>.*", Pattern.CASE_INSENSITIVE);
+    /**
+     * 邮箱@之后的部分，@之前的部分由 {@link #emailFormat(String, Matcher)} 逐字符校验
+     */
+    private static final Pattern EMAIL_DOMAIN_PATTERN = Pattern.compile(
+            "^([a-z0-9]+[-a-z0-9]*[a-z0-9]+.){1,63}[a-z0-9]+$");
+
+    private static final char FULL_WIDTH_SPACE = (char) 12288;
+    private static final char FULL_WIDTH_FIRST = (char) 65281;
+    private static final char FULL_WIDTH_RANGE = (char) (65374 - 65281);
+    private static final int FULL_WIDTH_OFFSET = 65248;
+    private static final int WIDTH_BUFFER_SIZE = 8 * 1024;
+
+    private static final char[] HEX_UPPER = "0123456789ABCDEF".toCharArray();
+    private static final boolean[] URL_SAFE = new boolean[0x80];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            URL_SAFE[c] = true;
+            URL_SAFE[c - 'a' + 'A'] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            URL_SAFE[c] = true;
+        }
+        URL_SAFE['.'] = true;
+        URL_SAFE['-'] = true;
+        URL_SAFE['*'] = true;
+        URL_SAFE['_'] = true;
+    }
+
     /**
      * is null or its length is 0 or it is made by space
      * <p>
@@ -124,15 +154,28 @@ public class StringUtils {
      * @throws UnsupportedEncodingException if an error occurs
      */
     public static String utf8Encode(String str) {
-        if (!isEmpty(str) && str.getBytes().length != str.length()) {
-            try {
-                return URLEncoder.encode(str, HTTP.UTF_8);
-            } catch (UnsupportedEncodingException e) {
-                throw new RuntimeException(
-                        "UnsupportedEncodingException occurred. ", e);
+        if (isEmpty(str)) {
+            return str;
+        }
+
+        int length = str.length();
+        int nonAscii = 0;
+        for (int i = 0; i < length; i++) {
+            if (str.charAt(i) >= 0x80) {
+                nonAscii++;
             }
         }
-        return str;
+        if (nonAscii == 0) {
+            return str;
+        }
+        // 非ASCII字符最多编码为 "%XX" * 3，ASCII部分按原长度估计
+        StringBuilder sb = new StringBuilder(length + nonAscii * 8);
+        try {
+            appendUtf8Encoded(str, 0, length, sb);
+        } catch (IOException e) {
+            throw new RuntimeException("IOException occurred. ", e);
+        }
+        return sb.toString();
     }
 
     /**
@@ -143,14 +186,76 @@ public class StringUtils {
      * @return
      */
     public static String utf8Encode(String str, String defultReturn) {
-        if (!isEmpty(str) && str.getBytes().length != str.length()) {
-            try {
-                return URLEncoder.encode(str, HTTP.UTF_8);
-            } catch (UnsupportedEncodingException e) {
-                return defultReturn;
+        try {
+            return utf8Encode(str);
+        } catch (RuntimeException e) {
+            return defultReturn;
+        }
+    }
+
+    /**
+     * 按 URLEncoder.encode(str, "UTF-8") 的规则编码后直接追加到 out，用于拼接完整的查询串
+     * <p>
+     * 与 {@link #utf8Encode(String)} 不同，全是ASCII的 str 也会编码，"a&amp;b=c" 中的 '&amp;'
+     * 和 '=' 同样转为 %XX。
+     * <p>
+     * <pre>
+     * StringBuilder query = new StringBuilder();
+     * query.append("name=");
+     * StringUtils.utf8Encode(name, query);
+     * </pre>
+     *
+     * @param str
+     * @param out
+     * @return out
+     * @throws IOException if out throws
+     */
+    public static Appendable utf8Encode(CharSequence str, Appendable out) throws IOException {
+        if (str == null) {
+            return out;
+        }
+        return appendUtf8Encoded(str, 0, str.length(), out);
+    }
+
+    /**
+     * 与 URLEncoder.encode(str, "UTF-8") 相同：字母数字和 ".-*_" 不变，空格转为 '+'，
+     * 其余按UTF-8字节转为 %XX，无法配对的代理字符按 '?' 编码
+     */
+    private static Appendable appendUtf8Encoded(CharSequence str, int start, int end,
+                                                Appendable out) throws IOException {
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                if (URL_SAFE[c]) {
+                    out.append(c);
+                } else if (c == ' ') {
+                    out.append('+');
+                } else {
+                    appendEscaped(out, c);
+                }
+            } else if (c < 0x800) {
+                appendEscaped(out, 0xC0 | (c >> 6));
+                appendEscaped(out, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, str.charAt(++i));
+                appendEscaped(out, 0xF0 | (codePoint >> 18));
+                appendEscaped(out, 0x80 | ((codePoint >> 12) & 0x3F));
+                appendEscaped(out, 0x80 | ((codePoint >> 6) & 0x3F));
+                appendEscaped(out, 0x80 | (codePoint & 0x3F));
+            } else if (c >= '\uD800' && c <= '\uDFFF') {
+                appendEscaped(out, '?');
+            } else {
+                appendEscaped(out, 0xE0 | (c >> 12));
+                appendEscaped(out, 0x80 | ((c >> 6) & 0x3F));
+                appendEscaped(out, 0x80 | (c & 0x3F));
             }
         }
-        return str;
+        return out;
+    }
+
+    private static void appendEscaped(Appendable out, int b) throws IOException {
+        out.append('%').append(HEX_UPPER[b >> 4]).append(HEX_UPPER[b & 0x0F]);
     }
 
     /**
@@ -183,10 +288,7 @@ public class StringUtils {
             return "";
         }
 
-        String hrefReg = ".*<[\\s]*a[\\s]*.*>(.+?)<[\\s]*/a[\\s]*>.*";
-        Pattern hrefPattern = Pattern
-                .compile(hrefReg, Pattern.CASE_INSENSITIVE);
-        Matcher hrefMatcher = hrefPattern.matcher(href);
+        Matcher hrefMatcher = HREF_PATTERN.matcher(href);
         if (hrefMatcher.matches()) {
             return hrefMatcher.group(1);
         }
@@ -205,15 +307,16 @@ public class StringUtils {
      * htmlEscapeCharsToString("mp3&amp;mp4") = "mp3&mp4";
      * htmlEscapeCharsToString("mp3&quot;mp4") = "mp3\"mp4";
      * htmlEscapeCharsToString("mp3&lt;&gt;&amp;&quot;mp4") = "mp3\<\>&\"mp4";
+     * htmlEscapeCharsToString("&amp;lt;") = "&lt;";
+     * htmlEscapeCharsToString("&copy;&#169;&#xA9;") = "©©©";
      * </pre>
      *
      * @param source
      * @return
+     * @see HtmlEntityDecoder
      */
     public static String htmlEscapeCharsToString(String source) {
-        return StringUtils.isEmpty(source) ? source : source
-                .replaceAll("&lt;", "<").replaceAll("&gt;", ">")
-                .replaceAll("&amp;", "&").replaceAll("&quot;", "\"");
+        return StringUtils.isEmpty(source) ? source : HtmlEntityDecoder.decode(source);
     }
 
     /**
@@ -234,21 +337,69 @@ public class StringUtils {
             return s;
         }
 
-        char[] source = s.toCharArray();
-        for (int i = 0; i < source.length; i++) {
-            if (source[i] == 12288) {
-                source[i] = ' ';
-                // } else if (source[i] == 12290) {
-                // source[i] = '.';
-            } else if (source[i] >= 65281 && source[i] <= 65374) {
-                source[i] = (char) (source[i] - 65248);
-            } else {
-                source[i] = source[i];
-            }
+        int length = s.length();
+        int first = indexOfFullWidth(s, 0, length);
+        if (first < 0) {
+            return s;
         }
+        char[] source = new char[length];
+        s.getChars(0, length, source, 0);
+        toHalfWidth(source, first, length);
         return new String(source);
     }
 
+    /**
+     * 转换 CharSequence 的一段，没有需要转换的字符时不做替换
+     *
+     * @param s
+     * @param start 起始下标(含)
+     * @param end   结束下标(不含)
+     * @return
+     */
+    public static String fullWidthToHalfWidth(CharSequence s, int start, int end) {
+        int first = indexOfFullWidth(s, start, end);
+        if (first < 0) {
+            return s.subSequence(start, end).toString();
+        }
+        char[] source = new char[end - start];
+        for (int i = start; i < end; i++) {
+            source[i - start] = s.charAt(i);
+        }
+        toHalfWidth(source, first - start, source.length);
+        return new String(source);
+    }
+
+    /**
+     * 在调用方提供的缓冲区内原地转换
+     *
+     * @param buffer
+     * @param offset
+     * @param length
+     * @return 被转换的字符个数
+     */
+    public static int fullWidthToHalfWidth(char[] buffer, int offset, int length) {
+        return toHalfWidth(buffer, offset, offset + length);
+    }
+
+    /**
+     * 流式转换，适合大文件，不会关闭流
+     *
+     * @param in
+     * @param out
+     * @return 被转换的字符个数
+     * @throws IOException
+     */
+    public static long fullWidthToHalfWidth(Reader in, Writer out) throws IOException {
+        char[] buffer = new char[WIDTH_BUFFER_SIZE];
+        long count = 0;
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            count += toHalfWidth(buffer, 0, length);
+            out.write(buffer, 0, length);
+        }
+        return count;
+    }
+
     /**
      * transform full width char to half width char
      * <p>
@@ -267,21 +418,127 @@ public class StringUtils {
             return s;
         }
 
-        char[] source = s.toCharArray();
-        for (int i = 0; i < source.length; i++) {
-            if (source[i] == ' ') {
-                source[i] = (char) 12288;
-                // } else if (source[i] == '.') {
-                // source[i] = (char)12290;
-            } else if (source[i] >= 33 && source[i] <= 126) {
-                source[i] = (char) (source[i] + 65248);
-            } else {
-                source[i] = source[i];
-            }
+        int length = s.length();
+        int first = indexOfHalfWidth(s, 0, length);
+        if (first < 0) {
+            return s;
+        }
+        char[] source = new char[length];
+        s.getChars(0, length, source, 0);
+        toFullWidth(source, first, length);
+        return new String(source);
+    }
+
+    /**
+     * 转换 CharSequence 的一段，没有需要转换的字符时不做替换
+     *
+     * @param s
+     * @param start 起始下标(含)
+     * @param end   结束下标(不含)
+     * @return
+     */
+    public static String halfWidthToFullWidth(CharSequence s, int start, int end) {
+        int first = indexOfHalfWidth(s, start, end);
+        if (first < 0) {
+            return s.subSequence(start, end).toString();
         }
+        char[] source = new char[end - start];
+        for (int i = start; i < end; i++) {
+            source[i - start] = s.charAt(i);
+        }
+        toFullWidth(source, first - start, source.length);
         return new String(source);
     }
 
+    /**
+     * 在调用方提供的缓冲区内原地转换
+     *
+     * @param buffer
+     * @param offset
+     * @param length
+     * @return 被转换的字符个数
+     */
+    public static int halfWidthToFullWidth(char[] buffer, int offset, int length) {
+        return toFullWidth(buffer, offset, offset + length);
+    }
+
+    /**
+     * 流式转换，适合大文件，不会关闭流
+     *
+     * @param in
+     * @param out
+     * @return 被转换的字符个数
+     * @throws IOException
+     */
+    public static long halfWidthToFullWidth(Reader in, Writer out) throws IOException {
+        char[] buffer = new char[WIDTH_BUFFER_SIZE];
+        long count = 0;
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            count += toFullWidth(buffer, 0, length);
+            out.write(buffer, 0, length);
+        }
+        return count;
+    }
+
+    // 全角空格12288，全角字符65281~65374与半角33~126相差65248；
+    // 用无符号比较把区间判断合并为一次比较
+    private static boolean isFullWidth(char c) {
+        return c == FULL_WIDTH_SPACE || (char) (c - FULL_WIDTH_FIRST) <= FULL_WIDTH_RANGE;
+    }
+
+    private static boolean isHalfWidth(char c) {
+        return (char) (c - ' ') <= FULL_WIDTH_RANGE + 1;
+    }
+
+    private static int indexOfFullWidth(CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (isFullWidth(s.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfHalfWidth(CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (isHalfWidth(s.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int toHalfWidth(char[] source, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            char c = source[i];
+            if (c == FULL_WIDTH_SPACE) {
+                source[i] = ' ';
+                count++;
+            } else if ((char) (c - FULL_WIDTH_FIRST) <= FULL_WIDTH_RANGE) {
+                source[i] = (char) (c - FULL_WIDTH_OFFSET);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int toFullWidth(char[] source, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            char c = source[i];
+            if (c == ' ') {
+                source[i] = FULL_WIDTH_SPACE;
+                count++;
+            } else if ((char) (c - '!') <= FULL_WIDTH_RANGE) {
+                source[i] = (char) (c + FULL_WIDTH_OFFSET);
+                count++;
+            }
+        }
+        return count;
+    }
+
     /**
      * 判断字符串数字是否都是数字
      *
@@ -289,9 +546,27 @@ public class StringUtils {
      * @return
      */
     public static boolean isNumeric(String str) {
-        Pattern pattern = Pattern.compile("[0-9]*");
-        Matcher isNum = pattern.matcher(str);
-        return isNum.matches();
+        for (int i = str.length() - 1; i >= 0; i--) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 批量判断字符串是否都是数字
+     *
+     * @param list
+     * @return 与list一一对应的结果
+     */
+    public static boolean[] isNumeric(List<String> list) {
+        boolean[] result = new boolean[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = isNumeric(list.get(i));
+        }
+        return result;
     }
 
     /**
@@ -316,20 +591,16 @@ public class StringUtils {
      * change to md5
      *
      * @param string
+     * @see DigestUtils
      * @return
      */
     public static String md5(String string) {
 
-        byte[] hash;
+        byte[] bytes;
 
         try {
 
-            hash = MessageDigest.getInstance("MD5").digest(
-                    string.getBytes("UTF-8"));
-
-        } catch (NoSuchAlgorithmException e) {
-
-            throw new RuntimeException("Huh, MD5 should be supported?", e);
+            bytes = string.getBytes("UTF-8");
 
         } catch (UnsupportedEncodingException e) {
 
@@ -337,18 +608,7 @@ public class StringUtils {
 
         }
 
-        StringBuilder hex = new StringBuilder(hash.length * 2);
-
-        for (byte b : hash) {
-
-            if ((b & 0xFF) < 0x10)
-                hex.append("0");
-
-            hex.append(Integer.toHexString(b & 0xFF));
-
-        }
-
-        return hex.toString();
+        return DigestUtils.md5Hex(bytes);
 
     }
 
@@ -372,14 +632,43 @@ public class StringUtils {
      * @return 是否合法
      */
     public static boolean emailFormat(String email) {
-        boolean tag = true;
-//		final String pattern1 = "^([a-z0-9A-Z]+[-|\\.]?)+[a-z0-9A-Z]@([a-z0-9A-Z]+(-[a-z0-9A-Z]+)?\\.)+[a-zA-Z]{2,}$";
-        final String pattern1 = "^[a-z0-9]+([._\\-]*[a-z0-9])*@([a-z0-9]+[-a-z0-9]*[a-z0-9]+.){1,63}[a-z0-9]+$";
-        final Pattern pattern = Pattern.compile(pattern1);
-        final Matcher mat = pattern.matcher(email);
-        if (!mat.find()) {
-            tag = false;
-        }
-        return tag;
+        return emailFormat(email, EMAIL_DOMAIN_PATTERN.matcher(""));
+    }
+
+    /**
+     * 批量验证邮箱格式，整个列表共用一个 Matcher
+     *
+     * @param emails
+     * @return 与emails一一对应的结果
+     */
+    public static boolean[] emailFormat(List<String> emails) {
+        Matcher matcher = EMAIL_DOMAIN_PATTERN.matcher("");
+        boolean[] result = new boolean[emails.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = emailFormat(emails.get(i), matcher);
+        }
+        return result;
+    }
+
+    /**
+     * 等价于正则 ^[a-z0-9]+([._\\-]*[a-z0-9])*@([a-z0-9]+[-a-z0-9]*[a-z0-9]+.){1,63}[a-z0-9]+$ ，
+     * @之前的部分不含@，逐字符即可判断，只有@之后的部分交给正则。
+     */
+    private static boolean emailFormat(String email, Matcher domainMatcher) {
+        int length = email.length();
+        int at = email.indexOf('@');
+        if (at <= 0 || length - at < 5) {
+            return false;
+        }
+        for (int i = 0; i < at; i++) {
+            char c = email.charAt(i);
+            boolean alnum = (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9');
+            if (!alnum && ((i == 0 || i == at - 1) || (c != '.' && c != '_' && c != '-'))) {
+                return false;
+            }
+        }
+        domainMatcher.reset(email);
+        domainMatcher.region(at + 1, length);
+        return domainMatcher.find();
     }
 }
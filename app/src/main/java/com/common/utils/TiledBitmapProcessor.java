@@ -0,0 +1,305 @@
+package com.common.utils;
+
+import java.io.IOException;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+
+/**
+ * 分块处理大图
+ * <p>
+ * 按 tileSize 把图片切成小块，每块连同滤镜需要的邻域(halo)一起读出，处理后只把中间部分
+ * 写到输出，峰值内存只和块大小有关，不再需要整张图的 int[] 像素拷贝。
+ * 文件来源在 API 10 以上用 BitmapRegionDecoder 按区域解码，不会把整张图解码到内存。
+ * <p>
+ * <pre>
+ * Bitmap result = TiledBitmapProcessor.process(path,
+ *         PictureUtils.boxBlurTileFilter(12), BitmapConfigPolicy.selectForFile(path));
+ * </pre>
+ */
+public class TiledBitmapProcessor {
+
+    private static final String LOGTAG = "TiledBitmapProcessor";
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    private static final MetricsRegistry.Timer PROCESS_TIMER = MetricsRegistry
+            .timer("TiledBitmapProcessor.process");
+
+    /**
+     * 一个块的像素，pixels 中按行存放 width * height 个像素(含halo)，
+     * 左上角对应原图中的 (x, y)
+     */
+    public static class Tile {
+        public int[] pixels;
+        /**
+         * 与 pixels 同样大小的临时缓冲区，滤镜可随意使用
+         */
+        public int[] scratch;
+        public int x;
+        public int y;
+        public int width;
+        public int height;
+        public int imageWidth;
+        public int imageHeight;
+    }
+
+    /**
+     * 块滤镜，结果写回 {@link Tile#pixels}；也可以把结果写到 scratch 后交换两个数组
+     */
+    public interface TileFilter {
+        /**
+         * @return 计算一个像素需要读取的邻域半径，0表示逐像素滤镜
+         */
+        int getHalo();
+
+        void filter(Tile tile);
+    }
+
+    /**
+     * 像素来源
+     */
+    public interface TileSource {
+        int getWidth();
+
+        int getHeight();
+
+        /**
+         * 读取一个区域，pixels 的行距为 width
+         */
+        void read(int x, int y, int width, int height, int[] pixels) throws IOException;
+
+        void close();
+    }
+
+    /**
+     * 处理结果的输出，块按从左到右、从上到下的顺序写入
+     */
+    public interface TileSink {
+        void write(int[] pixels, int offset, int stride, int x, int y, int width,
+                   int height) throws IOException;
+    }
+
+    /**
+     * 从已在内存中的 Bitmap 读取，只拷贝每次需要的区域
+     */
+    public static class BitmapSource implements TileSource {
+        private final Bitmap mBitmap;
+        private final boolean mRecycleOnClose;
+
+        public BitmapSource(Bitmap bitmap) {
+            this(bitmap, false);
+        }
+
+        BitmapSource(Bitmap bitmap, boolean recycleOnClose) {
+            mBitmap = bitmap;
+            mRecycleOnClose = recycleOnClose;
+        }
+
+        @Override
+        public int getWidth() {
+            return mBitmap.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return mBitmap.getHeight();
+        }
+
+        @Override
+        public void read(int x, int y, int width, int height, int[] pixels) {
+            mBitmap.getPixels(pixels, 0, width, x, y, width, height);
+        }
+
+        @Override
+        public void close() {
+            if (mRecycleOnClose) {
+                mBitmap.recycle();
+            }
+        }
+    }
+
+    /**
+     * 按区域解码图片文件
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    public static class RegionDecoderSource implements TileSource {
+        private final BitmapRegionDecoder mDecoder;
+        private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+        private final Rect mRect = new Rect();
+
+        public RegionDecoderSource(String path) throws IOException {
+            mDecoder = BitmapRegionDecoder.newInstance(path, false);
+            mOptions.inPreferredConfig = Config.ARGB_8888;
+        }
+
+        @Override
+        public int getWidth() {
+            return mDecoder.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return mDecoder.getHeight();
+        }
+
+        @Override
+        public void read(int x, int y, int width, int height, int[] pixels) throws IOException {
+            mRect.set(x, y, x + width, y + height);
+            Bitmap region = mDecoder.decodeRegion(mRect, mOptions);
+            if (region == null) {
+                throw new IOException("decodeRegion failed: " + mRect);
+            }
+            try {
+                region.getPixels(pixels, 0, width, 0, 0, width, height);
+            } finally {
+                region.recycle();
+            }
+        }
+
+        @Override
+        public void close() {
+            mDecoder.recycle();
+        }
+    }
+
+    /**
+     * 写入输出 Bitmap 的对应位置
+     */
+    public static class BitmapSink implements TileSink {
+        private final Bitmap mBitmap;
+
+        public BitmapSink(Bitmap bitmap) {
+            mBitmap = bitmap;
+        }
+
+        @Override
+        public void write(int[] pixels, int offset, int stride, int x, int y, int width,
+                          int height) {
+            mBitmap.setPixels(pixels, offset, stride, x, y, width, height);
+        }
+    }
+
+    /**
+     * 打开图片文件作为来源；API 10 以下没有区域解码，退回整图解码
+     *
+     * @return 文件不存在或无法解码时返回null
+     */
+    public static TileSource openFile(String path) {
+        if (!FileUtils.isFileExist(path)) {
+            return null;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1) {
+            try {
+                return new RegionDecoderSource(path);
+            } catch (IOException e) {
+                // 不支持区域解码的格式，按整图解码
+                LogUtil.w(LOGTAG, "region decode unsupported: %s", path);
+            }
+        }
+        // 经 DecoderService 排队，放不下时按内存预算解出较小的图片，失败时返回null
+        Bitmap bitmap = DecoderService.decodeFile(path, DecoderService.newRequest());
+        return bitmap == null ? null : new BitmapSource(bitmap, true);
+    }
+
+    /**
+     * 处理图片文件，输出为新的 Bitmap
+     *
+     * @return 失败时返回null
+     */
+    public static Bitmap process(String path, TileFilter filter, Config config) {
+        TileSource source = openFile(path);
+        if (source == null) {
+            return null;
+        }
+        try {
+            return process(source, filter, config, DEFAULT_TILE_SIZE);
+        } finally {
+            source.close();
+        }
+    }
+
+    public static Bitmap process(Bitmap bitmap, TileFilter filter, Config config) {
+        if (bitmap == null) {
+            return null;
+        }
+        return process(new BitmapSource(bitmap), filter, config, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * @return 失败时返回null，不会关闭 source
+     */
+    public static Bitmap process(TileSource source, TileFilter filter, Config config,
+                                 int tileSize) {
+        if (!MemoryBudget.canAllocateBitmap(source.getWidth(), source.getHeight(), config)) {
+            return null;
+        }
+        Bitmap output = null;
+        try {
+            output = Bitmap.createBitmap(source.getWidth(), source.getHeight(), config);
+            process(source, filter, new BitmapSink(output), tileSize);
+            return output;
+        } catch (IOException e) {
+            LogUtil.e(LOGTAG, "process failed", e);
+        } catch (OutOfMemoryError e) {
+            LogUtil.e(LOGTAG, "process:OutOfMemoryError");
+        }
+        if (output != null) {
+            output.recycle();
+        }
+        return null;
+    }
+
+    /**
+     * 逐块读取、处理并写出
+     *
+     * @param source
+     * @param filter
+     * @param sink
+     * @param tileSize 每块输出的边长，读取时每边再加上 {@link TileFilter#getHalo()}
+     * @throws IOException source 或 sink 出错
+     */
+    public static void process(TileSource source, TileFilter filter, TileSink sink,
+                               int tileSize) throws IOException {
+        long start = MetricsRegistry.start();
+        try {
+            int imageWidth = source.getWidth();
+            int imageHeight = source.getHeight();
+            int halo = Math.max(0, filter.getHalo());
+            int bufferWidth = Math.min(imageWidth, tileSize + 2 * halo);
+            int bufferHeight = Math.min(imageHeight, tileSize + 2 * halo);
+
+            Tile tile = new Tile();
+            tile.pixels = new int[bufferWidth * bufferHeight];
+            tile.scratch = new int[bufferWidth * bufferHeight];
+            tile.imageWidth = imageWidth;
+            tile.imageHeight = imageHeight;
+
+            for (int ty = 0; ty < imageHeight; ty += tileSize) {
+                int th = Math.min(tileSize, imageHeight - ty);
+                int sy = Math.max(0, ty - halo);
+                int ey = Math.min(imageHeight, ty + th + halo);
+                for (int tx = 0; tx < imageWidth; tx += tileSize) {
+                    int tw = Math.min(tileSize, imageWidth - tx);
+                    int sx = Math.max(0, tx - halo);
+                    int ex = Math.min(imageWidth, tx + tw + halo);
+
+                    tile.x = sx;
+                    tile.y = sy;
+                    tile.width = ex - sx;
+                    tile.height = ey - sy;
+                    source.read(sx, sy, tile.width, tile.height, tile.pixels);
+                    filter.filter(tile);
+                    sink.write(tile.pixels, (ty - sy) * tile.width + (tx - sx), tile.width,
+                            tx, ty, tw, th);
+                }
+            }
+        } finally {
+            PROCESS_TIMER.stop(start);
+        }
+    }
+}
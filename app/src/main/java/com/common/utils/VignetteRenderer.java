@@ -0,0 +1,141 @@
+package com.common.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 查表实现的羽化(四周提亮)
+ * <p>
+ * 提亮量 = (dx * dx + dy * dy) / diff * 255，其中 dx 只和列有关、dy 只和行有关，
+ * 因此按列、按行各预先算一张16位定点数表，每个像素只需一次加法、一次移位和查饱和表，
+ * 不再有浮点运算。表按图片尺寸和 size 缓存，同尺寸的图片连续处理时只计算一次。
+ */
+public class VignetteRenderer {
+
+    /**
+     * 原来固定的羽化范围
+     */
+    public static final float DEFAULT_SIZE = 0.5f;
+
+    private static final int SHIFT = 16;
+    private static final int MAX_TERM = 256 << SHIFT;
+    private static final int CACHE_SIZE = 4;
+
+    /**
+     * SATURATE[c + add] = min(c + add, 255)
+     */
+    private static final int[] SATURATE = new int[256 * 2];
+
+    static {
+        for (int i = 0; i < SATURATE.length; i++) {
+            SATURATE[i] = Math.min(i, 255);
+        }
+    }
+
+    private static final Map<String, Lut> sCache = new LinkedHashMap<String, Lut>(
+            CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Lut> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * 按列、按行的提亮量，已左移 {@link #SHIFT} 位
+     */
+    private static final class Lut {
+        final int[] columns;
+        final int[] rows;
+
+        Lut(int imageWidth, int imageHeight, float size) {
+            final int SIZE = 32768;
+            int ratio = imageWidth > imageHeight ? imageHeight * SIZE / imageWidth : imageWidth
+                    * SIZE / imageHeight;// 这里有额外*2^15 用于放大比率；之后的比率使用时需要右移15位，或者/2^15.
+
+            int cx = imageWidth >> 1;
+            int cy = imageHeight >> 1;
+            int max = cx * cx + cy * cy;
+            int min = (int) (max * (1 - size));
+            int diff = Math.max(1, max - min);
+
+            columns = new int[imageWidth];
+            for (int j = 0; j < imageWidth; j++) {
+                int dx = cx - j;
+                if (imageWidth > imageHeight) {
+                    dx = (dx * ratio) >> 15;
+                }
+                columns[j] = term(dx, diff);
+            }
+            rows = new int[imageHeight];
+            for (int i = 0; i < imageHeight; i++) {
+                int dy = cy - i;
+                if (imageWidth <= imageHeight) {
+                    dy = (dy * ratio) >> 15;
+                }
+                rows[i] = term(dy, diff);
+            }
+        }
+
+        /**
+         * d * d * 255 / diff，超过255的部分没有意义，截断后两项相加不会溢出
+         */
+        private static int term(int d, int diff) {
+            long value = ((long) d * d * 255 << SHIFT) / diff;
+            return (int) Math.min(value, MAX_TERM);
+        }
+    }
+
+    /**
+     * 羽化一块像素
+     *
+     * @param pixels      按行存放的 width * height 个像素，原地修改
+     * @param x           这块在原图中的横坐标
+     * @param y           这块在原图中的纵坐标
+     * @param imageWidth  原图宽度
+     * @param imageHeight 原图高度
+     * @param size        羽化范围，越小四周提亮越强，原来固定为 {@link #DEFAULT_SIZE}
+     */
+    public static void render(int[] pixels, int x, int y, int width, int height,
+                              int imageWidth, int imageHeight, float size) {
+        Lut lut = getLut(imageWidth, imageHeight, size);
+        int[] columns = lut.columns;
+        int[] rows = lut.rows;
+        int[] saturate = SATURATE;
+        for (int i = 0; i < height; i++) {
+            int row = rows[y + i];
+            int index = i * width;
+            for (int j = 0; j < width; j++, index++) {
+                int add = (row + columns[x + j]) >> SHIFT;
+                if (add > 255) {
+                    add = 255;
+                }
+                int pixel = pixels[index];
+                pixels[index] = (pixel & 0xff000000)
+                        | (saturate[((pixel >> 16) & 0xff) + add] << 16)
+                        | (saturate[((pixel >> 8) & 0xff) + add] << 8)
+                        | saturate[(pixel & 0xff) + add];
+            }
+        }
+    }
+
+    /**
+     * 丢弃缓存的提亮表，内存紧张时调用
+     */
+    public static void clearCache() {
+        synchronized (sCache) {
+            sCache.clear();
+        }
+    }
+
+    private static Lut getLut(int imageWidth, int imageHeight, float size) {
+        String key = imageWidth + "x" + imageHeight + "@" + size;
+        synchronized (sCache) {
+            Lut lut = sCache.get(key);
+            if (lut == null) {
+                lut = new Lut(imageWidth, imageHeight, size);
+                sCache.put(key, lut);
+            }
+            return lut;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package com.common.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.media.ExifInterface;
+
+/**
+ * 批量加水印
+ * <p>
+ * 与 {@link PictureUtils#createBitmapForWatermark} 的位置相同，但每张图片按目标尺寸解码并摆正后
+ * 直接在解出的可变 Bitmap 上绘制水印，不再新建一张同样大的图片重画原图；
+ * 按图片宽度缩放后的水印缓存在引擎中，同样宽度的图片共用。
+ * 解码、绘制和编码在固定线程数的线程池中并行，每批的吞吐量(张/秒)计入
+ * WatermarkEngine.imagesPerSecond 统计。
+ * <p>
+ * 输出 JPEG 时保留原图的拍摄时间、相机和位置等 EXIF 信息，方向改为正常。
+ * 覆盖原文件时，如果内存预算使解出的图片小于应有的尺寸，不覆盖并按失败处理。
+ * <p>
+ * <pre>
+ * WatermarkEngine engine = new WatermarkEngine(logo)
+ *         .setTargetSize(1600, 1600)
+ *         .setWatermarkWidthRatio(0.2f);
+ * WatermarkEngine.Result result = engine.process(captureDir, null);
+ * </pre>
+ */
+public class WatermarkEngine {
+
+    private static final String LOGTAG = "WatermarkEngine";
+
+    public static final int DEFAULT_QUALITY = 90;
+    private static final int MAX_THREADS = 3;
+    private static final int SCALED_CACHE_SIZE = 4;
+    /**
+     * 与 createBitmapForWatermark 相同，水印相对右下角的偏移
+     */
+    private static final int OFFSET = 5;
+    /**
+     * 图片已摆正，不再保留方向；这些 API 8 就有的标签原样复制
+     */
+    private static final String[] EXIF_TAGS = {
+            ExifInterface.TAG_DATETIME, ExifInterface.TAG_MAKE, ExifInterface.TAG_MODEL,
+            ExifInterface.TAG_FLASH, ExifInterface.TAG_WHITE_BALANCE,
+            ExifInterface.TAG_FOCAL_LENGTH, ExifInterface.TAG_GPS_LATITUDE,
+            ExifInterface.TAG_GPS_LATITUDE_REF, ExifInterface.TAG_GPS_LONGITUDE,
+            ExifInterface.TAG_GPS_LONGITUDE_REF, ExifInterface.TAG_GPS_TIMESTAMP,
+            ExifInterface.TAG_GPS_DATESTAMP, ExifInterface.TAG_GPS_PROCESSING_METHOD};
+
+    private static final MetricsRegistry.Timer IMAGE_TIMER = MetricsRegistry
+            .timer("WatermarkEngine.image");
+    private static final MetricsRegistry.Timer BATCH_TIMER = MetricsRegistry
+            .timer("WatermarkEngine.batch");
+    private static final MetricsRegistry.Histogram THROUGHPUT = MetricsRegistry
+            .histogram("WatermarkEngine.imagesPerSecond");
+    private static final MetricsRegistry.Counter FAILURE_COUNTER = MetricsRegistry
+            .counter("WatermarkEngine.failure");
+    private static final MetricsRegistry.Counter SHRUNK_COUNTER = MetricsRegistry
+            .counter("WatermarkEngine.shrunk");
+
+    private static ExecutorService sExecutor;
+
+    private final Bitmap mWatermark;
+    private final Map<Integer, Bitmap> mScaled = new LinkedHashMap<Integer, Bitmap>(
+            SCALED_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Bitmap> eldest) {
+            // 淘汰的水印可能正在其他线程绘制，交给 GC 回收
+            return size() > SCALED_CACHE_SIZE;
+        }
+    };
+    private int mMaxWidth;
+    private int mMaxHeight;
+    private float mWidthRatio;
+    private int mQuality = DEFAULT_QUALITY;
+    private String mOutputDir;
+
+    /**
+     * 批量处理中每张图片完成时在工作线程回调
+     */
+    public interface Callback {
+        /**
+         * @param output 输出文件，失败时为null
+         */
+        void onWatermarked(int index, String path, String output);
+    }
+
+    /**
+     * 一批处理的结果
+     */
+    public static class Result {
+        public final int total;
+        public final int succeeded;
+        public final long elapsedMillis;
+
+        Result(int total, int succeeded, long elapsedMillis) {
+            this.total = total;
+            this.succeeded = succeeded;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * @return 每秒处理的张数，按成功的张数计算
+         */
+        public float getImagesPerSecond() {
+            return elapsedMillis <= 0 ? succeeded : succeeded * 1000f / elapsedMillis;
+        }
+    }
+
+    /**
+     * @param watermark 水印原图，引擎使用期间不能回收
+     */
+    public WatermarkEngine(Bitmap watermark) {
+        if (watermark == null) {
+            throw new IllegalArgumentException("watermark is null");
+        }
+        mWatermark = watermark;
+    }
+
+    /**
+     * 摆正后的输出尺寸上限，保持比例；为0时不缩小
+     */
+    public WatermarkEngine setTargetSize(int maxWidth, int maxHeight) {
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+        return this;
+    }
+
+    /**
+     * 水印宽度占图片宽度的比例；为0时使用水印原尺寸
+     */
+    public WatermarkEngine setWatermarkWidthRatio(float ratio) {
+        mWidthRatio = ratio;
+        return this;
+    }
+
+    /**
+     * JPEG 质量，默认 {@link #DEFAULT_QUALITY}
+     */
+    public WatermarkEngine setQuality(int quality) {
+        mQuality = quality;
+        return this;
+    }
+
+    /**
+     * 输出目录，文件名不变；为null时覆盖原文件，此时解出的图片因内存不足被缩小的不会覆盖
+     */
+    public WatermarkEngine setOutputDir(String outputDir) {
+        mOutputDir = outputDir;
+        return this;
+    }
+
+    /**
+     * 处理目录中的 jpg、jpeg、png 文件，按文件名顺序；阻塞到全部完成
+     *
+     * @param callback 可以为null
+     */
+    public Result process(String directory, Callback callback) {
+        File[] files = new File(directory).listFiles();
+        List<String> paths = new ArrayList<String>();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isFile() && isImage(file.getName())) {
+                    paths.add(file.getPath());
+                }
+            }
+        }
+        return process(paths, callback);
+    }
+
+    /**
+     * 并行处理一组图片文件，阻塞到全部完成
+     *
+     * @param callback 可以为null
+     */
+    public Result process(List<String> paths, final Callback callback) {
+        final AtomicInteger succeeded = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            final int index = i;
+            final String path = paths.get(i);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    String output = watermark(path);
+                    if (output != null) {
+                        succeeded.incrementAndGet();
+                    } else {
+                        FAILURE_COUNTER.inc();
+                    }
+                    if (callback != null) {
+                        callback.onWatermarked(index, path, output);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        long start = MetricsRegistry.start();
+        long begin = System.currentTimeMillis();
+        try {
+            for (Future<Void> future : getExecutor().invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    LogUtil.e(LOGTAG, "watermark failed", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            BATCH_TIMER.stop(start);
+        }
+        Result result = new Result(paths.size(), succeeded.get(),
+                System.currentTimeMillis() - begin);
+        if (result.succeeded > 0) {
+            THROUGHPUT.record(Math.round(result.getImagesPerSecond()));
+        }
+        LogUtil.i(LOGTAG, "watermarked %d/%d, %s images/s", result.succeeded, result.total,
+                String.format("%.1f", result.getImagesPerSecond()));
+        return result;
+    }
+
+    /**
+     * 处理一张图片，在调用线程中执行
+     *
+     * @return 输出文件，失败时返回null
+     */
+    public String watermark(String path) {
+        long start = MetricsRegistry.start();
+        Bitmap bitmap = null;
+        try {
+            bitmap = ExifOrientation.decode(path, mMaxWidth, mMaxHeight);
+            if (bitmap == null) {
+                return null;
+            }
+            if (mOutputDir == null && isShrunk(path, bitmap)) {
+                // 覆盖后原图就找不回来了
+                SHRUNK_COUNTER.inc();
+                LogUtil.w(LOGTAG, "decoded smaller than requested, keep original: %s", path);
+                return null;
+            }
+            if (!bitmap.isMutable()) {
+                // API 11 以下解出的图片不可变
+                Bitmap copy = bitmap.copy(Bitmap.Config.ARGB_8888, true);
+                PictureUtils.recycleBitmap(bitmap);
+                bitmap = copy;
+                if (bitmap == null) {
+                    return null;
+                }
+            }
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            Bitmap watermark = getWatermark(width);
+            new Canvas(bitmap).drawBitmap(watermark, width - watermark.getWidth() + OFFSET,
+                    height - watermark.getHeight() + OFFSET, null);
+            String output = mOutputDir == null ? path
+                    : new File(mOutputDir, new File(path).getName()).getPath();
+            return save(bitmap, path, output) ? output : null;
+        } catch (OutOfMemoryError e) {
+            LogUtil.e(LOGTAG, "watermark:OutOfMemoryError");
+            return null;
+        } finally {
+            if (bitmap != null) {
+                PictureUtils.recycleBitmap(bitmap);
+            }
+            IMAGE_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * @return 解出的图片是否小于按 {@link #setTargetSize} 摆正缩放后应有的尺寸
+     */
+    private boolean isShrunk(String path, Bitmap bitmap) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return false;
+        }
+        boolean transposed = ExifOrientation.isTransposed(ExifOrientation.getOrientation(path));
+        int width = transposed ? options.outHeight : options.outWidth;
+        int height = transposed ? options.outWidth : options.outHeight;
+        float scale = 1f;
+        if (mMaxWidth > 0 && mMaxHeight > 0) {
+            scale = Math.min(1f, Math.min((float) mMaxWidth / width,
+                    (float) mMaxHeight / height));
+        }
+        // 缩放取整最多差1像素
+        return bitmap.getWidth() < Math.round(width * scale) - 1
+                || bitmap.getHeight() < Math.round(height * scale) - 1;
+    }
+
+    /**
+     * 按图片宽度缩放的水印，同样宽度共用一张
+     */
+    private Bitmap getWatermark(int imageWidth) {
+        if (mWidthRatio <= 0) {
+            return mWatermark;
+        }
+        int width = Math.max(1, Math.round(imageWidth * mWidthRatio));
+        if (width == mWatermark.getWidth()) {
+            return mWatermark;
+        }
+        synchronized (mScaled) {
+            Bitmap scaled = mScaled.get(width);
+            if (scaled == null) {
+                int height = Math.max(1, Math.round(
+                        (float) mWatermark.getHeight() * width / mWatermark.getWidth()));
+                scaled = Bitmap.createScaledBitmap(mWatermark, width, height, true);
+                mScaled.put(width, scaled);
+            }
+            return scaled;
+        }
+    }
+
+    /**
+     * 先写临时文件再改名，覆盖原文件时中途失败不会损坏原图
+     *
+     * @param path 原图，用于复制 EXIF
+     */
+    private boolean save(Bitmap bitmap, String path, String output) {
+        FileUtils.creatDirs(output);
+        File target = new File(output);
+        File temp = new File(output + ".tmp");
+        CompressFormat format = "png".equalsIgnoreCase(FileUtils.getFileExtension(output))
+                ? CompressFormat.PNG : CompressFormat.JPEG;
+        OutputStream out = null;
+        boolean written = false;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(temp));
+            written = bitmap.compress(format, mQuality, out);
+            out.flush();
+        } catch (IOException e) {
+            LogUtil.e(LOGTAG, "write failed: %s", e, output);
+            written = false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    LogUtil.w(LOGTAG, "close failed: %s", e, output);
+                    written = false;
+                }
+            }
+        }
+        if (written && format == CompressFormat.JPEG) {
+            copyExif(path, temp.getPath());
+        }
+        // renameTo 在同一文件系统内直接替换已有的文件，不先删除目标
+        if (written && temp.renameTo(target)) {
+            return true;
+        }
+        temp.delete();
+        return false;
+    }
+
+    /**
+     * 复制原图的 EXIF，失败时只记录日志，输出仍然有效
+     */
+    private static void copyExif(String source, String target) {
+        try {
+            ExifInterface from = new ExifInterface(source);
+            ExifInterface to = new ExifInterface(target);
+            for (String tag : EXIF_TAGS) {
+                String value = from.getAttribute(tag);
+                if (value != null) {
+                    to.setAttribute(tag, value);
+                }
+            }
+            to.setAttribute(ExifInterface.TAG_ORIENTATION,
+                    String.valueOf(ExifInterface.ORIENTATION_NORMAL));
+            to.saveAttributes();
+        } catch (IOException e) {
+            LogUtil.w(LOGTAG, "copy exif failed: %s", e, source);
+        }
+    }
+
+    /**
+     * 回收缓存的缩放水印，不回收水印原图；没有处理在进行时调用，之后仍可继续使用
+     */
+    public void release() {
+        synchronized (mScaled) {
+            for (Bitmap scaled : mScaled.values()) {
+                scaled.recycle();
+            }
+            mScaled.clear();
+        }
+    }
+
+    private static boolean isImage(String name) {
+        String extension = FileUtils.getFileExtension(name);
+        return "jpg".equalsIgnoreCase(extension) || "jpeg".equalsIgnoreCase(extension)
+                || "png".equalsIgnoreCase(extension);
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            // 每个线程同时持有一张解出的图片，线程数不随核数无限增加
+            int threads = Math.max(1, Math.min(MAX_THREADS,
+                    Runtime.getRuntime().availableProcessors() - 1));
+            sExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, LOGTAG + "-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+}
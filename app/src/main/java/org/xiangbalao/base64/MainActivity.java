@@ -5,12 +5,14 @@ import java.io.File;
 
 
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
 import android.graphics.Color;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.provider.MediaStore;
@@ -24,11 +26,14 @@ import android.webkit.WebSettings;
 import android.webkit.WebView;
 import android.widget.Button;
 import android.widget.ImageView;
-import android.widget.Toast;
 
 import com.common.utils.FileUtils;
+import com.common.utils.LogFileSink;
 import com.common.utils.LogUtil;
+import com.common.utils.MemoryBudget;
+import com.common.utils.MetricsRegistry;
 import com.common.utils.PictureUtils;
+import com.common.utils.ProgressiveDecoder;
 
 import org.xiangbalao.jscallcamera.R;
 
@@ -47,6 +52,18 @@ public class MainActivity extends Activity implements OnClickListener {
     private WebView mWebView;
     private String picFileFullName;
     private int CAPTURE_IMAGE_ACTIVITY_REQUEST_CODE = 100;
+    private static final long LOG_FILE_SIZE = 512 * 1024;
+    private static final int LOG_FILE_COUNT = 4;
+    private static final MetricsRegistry.Timer JS_DISPATCH_TIMER = MetricsRegistry
+            .timer("MainActivity.loadUrl");
+    private static final MetricsRegistry.Timer TO_STRING_TIMER = MetricsRegistry
+            .timer("MainActivity.bitmaptoString");
+    private static final int PREVIEW_SIZE = 94;
+    // 拍照后依次交付的长边尺寸：预览、中图、原图
+    private static final int[] RENDITION_SIZES = {PREVIEW_SIZE, 512,
+            ProgressiveDecoder.FULL_SIZE};
+    private static final int RENDITION_QUALITY = 85;
+    private final ProgressiveDecoder<String> mPhotoDecoder = new ProgressiveDecoder<String>();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -54,6 +71,10 @@ public class MainActivity extends Activity implements OnClickListener {
 
         setContentView(R.layout.main_1);
 
+        initLogFile();
+
+        MemoryBudget.init(this);
+
         initView();
 
         setWebView();
@@ -84,6 +105,18 @@ public class MainActivity extends Activity implements OnClickListener {
         mWebView.setWebChromeClient(new MyWebChromeClient());
     }
 
+    // 相机和js桥的日志同时写入文件，便于排查现场问题
+    private void initLogFile() {
+        if (LogUtil.getFileSink() != null) {
+            return;
+        }
+        LogFileSink sink = new LogFileSink(new File(getFilesDir(), "logs"), "camera",
+                LOG_FILE_SIZE, LOG_FILE_COUNT);
+        sink.start();
+        sink.installCrashHandler();
+        LogUtil.setFileSink(sink);
+    }
+
     private void initView() {
         callcamera = (Button) findViewById(R.id.callcamera);
         poto_image = (ImageView) findViewById(R.id.poto_image);
@@ -98,7 +131,7 @@ public class MainActivity extends Activity implements OnClickListener {
     public void getCamera(String s) {
 
 
-        LogUtil.i(MainActivity.class.getSimpleName(), "-----" + s);
+        LogUtil.i(MainActivity.class.getSimpleName(), "-----%s", s);
 
         callCamera();
 
@@ -143,39 +176,89 @@ public class MainActivity extends Activity implements OnClickListener {
         super.onActivityResult(requestCode, resultCode, data);
         if (requestCode == CAPTURE_IMAGE_ACTIVITY_REQUEST_CODE) {
             if (resultCode == RESULT_OK) {
-                Bitmap bmp;
+                // 先交付预览图，更大的版本在后台解码后依次替换；再次拍照时旧照片的任务作废
+                mPhotoDecoder.start(picFileFullName, RENDITION_SIZES, mPhotoCallback);
+            }
+        }
 
-                bmp = PictureUtils.reducePicSize(PictureUtils
-                        .decodeUriAsBitmap(Uri.parse(picFileFullName)), 94, 94);
-                poto_image.setImageBitmap(bmp);
+    }
 
-                bitmaptoString = bitmaptoString(bmp);
+    private final ProgressiveDecoder.Callback<String> mPhotoCallback =
+            new ProgressiveDecoder.Callback<String>() {
+        @Override
+        public String prepare(int index, int size, Bitmap bitmap) {
+            if (index > 0) {
+                return bitmaptoString(bitmap, CompressFormat.JPEG, RENDITION_QUALITY);
+            }
+            // 预览图保持原来的 94x94 PNG，usePhoto 和 showbase64 拿到的内容不变
+            Bitmap preview = PictureUtils.reducePicSize(bitmap, PREVIEW_SIZE, PREVIEW_SIZE);
+            if (preview == null) {
+                // 缩小失败时跳过预览，等下一级
+                return null;
+            }
+            String string = bitmaptoString(preview);
+            if (preview != bitmap) {
+                preview.recycle();
+            }
+            FileUtils.writeFile(base64, string, false);
+            return string;
+        }
 
-                if (bitmaptoString != null) {
+        @Override
+        public void deliver(int index, int size, Bitmap bitmap, String prepared) {
+            if (index == 0) {
+                bitmaptoString = prepared;
+                callJs("javascript:usePhoto(" + "'" + prepared + "')");
+            }
+            callJs("javascript:usePhoto1(" + "'" + prepared + "')");
+            if (size == ProgressiveDecoder.FULL_SIZE) {
+                // 原图只交给页面，不放进 ImageView
+                bitmap.recycle();
+            } else {
+                poto_image.setImageBitmap(bitmap);
+            }
+        }
+    };
 
-                    mWebView.loadUrl("javascript:usePhoto(" + "'"
-                            + bitmaptoString + "')");
-                    mWebView.loadUrl("javascript:usePhoto1(" + "'"
-                            + bitmaptoString + "')");
+    @Override
+    protected void onDestroy() {
+        mPhotoDecoder.cancel();
+        super.onDestroy();
+    }
 
-                } else {
-                    Toast.makeText(MainActivity.this, "bitmaptoString为空",
-                            Toast.LENGTH_SHORT).show();
-                }
-                FileUtils.writeFile(base64, bitmaptoString, false);
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        MemoryBudget.onTrimMemory(level);
+    }
 
-            }
-        }
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        MemoryBudget.onLowMemory();
+    }
 
+    // 调用页面中的js方法，统计每次分发的耗时
+    private void callJs(String script) {
+        long start = MetricsRegistry.start();
+        mWebView.loadUrl(script);
+        JS_DISPATCH_TIMER.stop(start);
     }
 
     // // 将图片转换成字符串
     public String bitmaptoString(Bitmap bitmap) {
+        return bitmaptoString(bitmap, CompressFormat.PNG, 100);
+    }
+
+    private String bitmaptoString(Bitmap bitmap, CompressFormat format, int quality) {
+        long start = MetricsRegistry.start();
         String string = null;
         ByteArrayOutputStream bStream = new ByteArrayOutputStream();
-        bitmap.compress(CompressFormat.PNG, 100, bStream);
+        bitmap.compress(format, quality, bStream);
         byte[] bytes = bStream.toByteArray();
         string = Base64.encodeToString(bytes, Base64.NO_WRAP);
+        TO_STRING_TIMER.stop(start);
 
         return string;
     }
@@ -199,11 +282,11 @@ public class MainActivity extends Activity implements OnClickListener {
 			 * "')");
 			 */
 
-                mWebView.loadUrl("javascript:usePhoto1(" + "'" + imageBase64 + "')");
-                mWebView.loadUrl("javascript:usePhoto(" + "'" + bitmaptoString
+                callJs("javascript:usePhoto1(" + "'" + imageBase64 + "')");
+                callJs("javascript:usePhoto(" + "'" + bitmaptoString
                         + "')");
 
-                mWebView.loadUrl("javascript:usePhoto(" + "'" + imageBase64 + "')");
+                callJs("javascript:usePhoto(" + "'" + imageBase64 + "')");
 
 			/*
 			 * mWebView.loadUrl("javascript:usePhoto1('" + bitmaptoString +